@@ -28,6 +28,8 @@ import com.redhat.jenkins.nodesharing.ConfigRepo;
 import com.redhat.jenkins.nodesharing.ExecutorJenkins;
 import com.redhat.jenkins.nodesharing.NodeDefinition;
 import com.redhat.jenkins.nodesharing.RestEndpoint;
+import com.redhat.jenkins.nodesharing.transport.AbstractEntity;
+import com.redhat.jenkins.nodesharing.transport.ConfigBundleRequest;
 import com.redhat.jenkins.nodesharing.transport.DiscoverRequest;
 import com.redhat.jenkins.nodesharing.transport.DiscoverResponse;
 import com.redhat.jenkins.nodesharing.transport.Entity;
@@ -43,6 +45,7 @@ import com.redhat.jenkins.nodesharing.transport.UtilizeNodeResponse;
 import hudson.Extension;
 import hudson.ExtensionList;
 import hudson.model.Computer;
+import hudson.model.Node;
 import hudson.model.Queue;
 import hudson.model.RootAction;
 import jenkins.model.Jenkins;
@@ -53,8 +56,10 @@ import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
 import org.kohsuke.stapler.interceptor.RequirePOST;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
@@ -64,6 +69,8 @@ import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.logging.Logger;
 
 /**
@@ -79,6 +86,9 @@ public class Api implements RootAction {
 
     private final @Nonnull String version;
 
+    // Bundle of the snapshot served last
+    private volatile @CheckForNull ConfigBundle bundle;
+
     public Api() {
         try {
             // TODO getClass().getPackage().getImplementationVersion() might work equally well
@@ -127,10 +137,10 @@ public class Api implements RootAction {
     public boolean utilizeNode(@Nonnull ExecutorJenkins executor, @Nonnull ShareableNode node) {
         Pool pool = Pool.getInstance();
         String configRepoUrl = pool.getConfigRepoUrl();
-        UtilizeNodeRequest request = new UtilizeNodeRequest(configRepoUrl, version, node.getNodeDefinition());
+        UtilizeNodeRequest request = new UtilizeNodeRequest(configRepoUrl, version, pool.getConfigRevision(), node.getNodeDefinition());
         RestEndpoint rest = executor.getRest(configRepoUrl, pool.getExecutorCredential(executor));
         try {
-            rest.executeRequest(rest.post("utilizeNode"), request, UtilizeNodeResponse.class);
+            observe(rest.executeRequest(rest.post("utilizeNode"), request, UtilizeNodeResponse.class));
             return true;
         } catch (ActionFailed.RequestFailed ex) {
             if (ex.getStatusCode() == HttpStatus.SC_GONE) {
@@ -140,6 +150,34 @@ public class Api implements RootAction {
         }
     }
 
+    /**
+     * Non-blocking variant of {@link #utilizeNode(ExecutorJenkins, ShareableNode)}.
+     *
+     * @return Future completed with true if the client accepted the node, false otherwise.
+     */
+    public @Nonnull CompletableFuture<Boolean> utilizeNodeAsync(@Nonnull ExecutorJenkins executor, @Nonnull ShareableNode node) {
+        Pool pool = Pool.getInstance();
+        String configRepoUrl = pool.getConfigRepoUrl();
+        UtilizeNodeRequest request = new UtilizeNodeRequest(configRepoUrl, version, pool.getConfigRevision(), node.getNodeDefinition());
+        RestEndpoint rest = executor.getRest(configRepoUrl, pool.getExecutorCredential(executor));
+        CompletableFuture<Boolean> accepted = new CompletableFuture<>();
+        rest.executeRequestAsync(rest.post("utilizeNode"), request, UtilizeNodeResponse.class).whenComplete((response, ex) -> {
+            if (ex == null) {
+                observe(response);
+                accepted.complete(true);
+                return;
+            }
+
+            Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+            if (cause instanceof ActionFailed.RequestFailed && ((ActionFailed.RequestFailed) cause).getStatusCode() == HttpStatus.SC_GONE) {
+                accepted.complete(false);
+            } else {
+                accepted.completeExceptionally(cause);
+            }
+        });
+        return accepted;
+    }
+
     /**
      * Query executor Jenkins to report shared hosts it uses.
      *
@@ -151,9 +189,26 @@ public class Api implements RootAction {
     public @Nonnull ReportUsageResponse reportUsage(@Nonnull ExecutorJenkins owner) {
         Pool pool = Pool.getInstance();
         String configRepoUrl = pool.getConfigRepoUrl();
-        ReportUsageRequest request = new ReportUsageRequest(configRepoUrl, version);
+        ReportUsageRequest request = new ReportUsageRequest(configRepoUrl, version, pool.getConfigRevision());
+        RestEndpoint rest = owner.getRest(configRepoUrl, pool.getExecutorCredential(owner));
+        ReportUsageResponse response = rest.executeRequest(rest.post("reportUsage"), request, ReportUsageResponse.class);
+        observe(response);
+        return response;
+    }
+
+    /**
+     * Non-blocking variant of {@link #reportUsage(ExecutorJenkins)}.
+     *
+     * @param owner Jenkins instance to query.
+     */
+    public @Nonnull CompletableFuture<ReportUsageResponse> reportUsageAsync(@Nonnull ExecutorJenkins owner) {
+        Pool pool = Pool.getInstance();
+        String configRepoUrl = pool.getConfigRepoUrl();
+        ReportUsageRequest request = new ReportUsageRequest(configRepoUrl, version, pool.getConfigRevision());
         RestEndpoint rest = owner.getRest(configRepoUrl, pool.getExecutorCredential(owner));
-        return rest.executeRequest(rest.post("reportUsage"), request, ReportUsageResponse.class);
+        return rest.executeRequestAsync(rest.post("reportUsage"), request, ReportUsageResponse.class).whenComplete(
+                (response, ex) -> observe(response)
+        );
     }
 
     /**
@@ -176,9 +231,10 @@ public class Api implements RootAction {
     public NodeStatusResponse.Status nodeStatus(@Nonnull final ExecutorJenkins jenkins, @Nonnull final String nodeName) {
         Pool pool = Pool.getInstance();
         String configRepoUrl = pool.getConfigRepoUrl();
-        NodeStatusRequest request = new NodeStatusRequest(configRepoUrl, version, nodeName);
+        NodeStatusRequest request = new NodeStatusRequest(configRepoUrl, version, pool.getConfigRevision(), nodeName);
         RestEndpoint rest = jenkins.getRest(configRepoUrl, pool.getExecutorCredential(jenkins));
         NodeStatusResponse nodeStatus = rest.executeRequest(rest.post("nodeStatus"), request, NodeStatusResponse.class);
+        observe(nodeStatus);
         return nodeStatus.getStatus();
     }
 
@@ -192,16 +248,18 @@ public class Api implements RootAction {
         Jenkins.getInstance().checkPermission(RestEndpoint.RESERVE);
 
         Pool pool = Pool.getInstance();
-        Collection<NodeDefinition> nodes = pool.getConfig().getNodes().values(); // Fail early when there is no config
+        ConfigRepo.Snapshot config = pool.getConfig(); // Fail early when there is no config
+        Collection<NodeDefinition> nodes = config.getNodes().values();
 
         DiscoverRequest request = Entity.fromInputStream(req.getInputStream(), DiscoverRequest.class);
+        observe(request);
 
         String version = this.version;
         String configEndpoint = pool.getConfigRepoUrl();
 
         String executorUrl = request.getExecutorUrl();
         try {
-            pool.getConfig().getJenkinsByUrl(executorUrl);
+            config.getJenkinsByUrl(executorUrl);
         } catch (NoSuchElementException ex) {
             // Do not disclose any other diagnostics to executor not approved in config repo
             String diagnosis = unknownExecutor(executorUrl, configEndpoint);
@@ -229,7 +287,7 @@ public class Api implements RootAction {
         }
 
         String diagnosis = diagnosisBuilder.toString();
-        new DiscoverResponse(configEndpoint, version, diagnosis, nodes).toOutputStream(rsp.getOutputStream());
+        new DiscoverResponse(configEndpoint, version, config.getSource(), diagnosis, nodes).toOutputStream(rsp.getOutputStream());
     }
 
     /**
@@ -246,6 +304,7 @@ public class Api implements RootAction {
         final ConfigRepo.Snapshot config = pool.getConfig(); // Fail early when there is no config
 
         final ReportWorkloadRequest request = Entity.fromInputStream(req.getInputStream(), ReportWorkloadRequest.class);
+        observe(request);
 
         final List<ReportWorkloadRequest.Workload.WorkloadItem> reportedItems = request.getWorkload().getItems();
         final ArrayList<ReservationTask> reportedTasks = new ArrayList<>(reportedItems.size());
@@ -285,7 +344,76 @@ public class Api implements RootAction {
         });
 
         String version = this.version;
-        new ReportWorkloadResponse(pool.getConfigRepoUrl(), version).toOutputStream(rsp.getOutputStream());
+        new ReportWorkloadResponse(pool.getConfigRepoUrl(), version, config.getSource()).toOutputStream(rsp.getOutputStream());
+    }
+
+    /**
+     * Serve config snapshot orchestrator uses so executors do not need to read the config repo themselves.
+     *
+     * The bundle is addressed by the config repo commit it was read from, used as an ETag. "304 Not Modified" is sent
+     * when executor already has the revision, despite this being a POST for the sake of the crumb and permission
+     * handling all the other endpoints share. "409 Conflict" is sent to executors not declared in the snapshot or
+     * configured from different repository as they need to consult the config repo.
+     */
+    @RequirePOST
+    public void doConfigBundle(@Nonnull final StaplerRequest req, @Nonnull final StaplerResponse rsp) throws IOException {
+        Jenkins.getInstance().checkPermission(RestEndpoint.RESERVE);
+
+        Pool pool = Pool.getInstance();
+        ConfigRepo.Snapshot config = pool.getConfig(); // Fail early when there is no config
+        String configEndpoint = pool.getConfigRepoUrl();
+
+        ConfigBundleRequest request = Entity.fromInputStream(req.getInputStream(), ConfigBundleRequest.class);
+        observe(request);
+
+        if (!request.getConfigRepoUrl().equals(configEndpoint)) {
+            rsp.setStatus(HttpServletResponse.SC_CONFLICT);
+            rsp.getWriter().println("Orchestrator is configured from " + configEndpoint + " but executor uses " + request.getConfigRepoUrl());
+            return;
+        }
+        try {
+            config.getJenkinsByUrl(request.getExecutorUrl());
+        } catch (NoSuchElementException ex) {
+            rsp.setStatus(HttpServletResponse.SC_CONFLICT);
+            rsp.getWriter().println(unknownExecutor(request.getExecutorUrl(), configEndpoint));
+            return;
+        }
+
+        String etag = '"' + config.getSource() + '"';
+        rsp.setHeader("ETag", etag);
+        if (etag.equals(req.getHeader("If-None-Match"))) {
+            rsp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        ConfigBundle bundle = this.bundle;
+        if (bundle == null || bundle.snapshot != config) {
+            // Racing requests serialize the same snapshot
+            this.bundle = bundle = new ConfigBundle(config, configEndpoint);
+        }
+        rsp.setContentType(ConfigBundle.CONTENT_TYPE);
+        rsp.setContentLength(bundle.data.length);
+        rsp.getOutputStream().write(bundle.data);
+    }
+
+    // Snapshots are immutable so the serialized form is valid as long as the snapshot is in use
+    private static final class ConfigBundle {
+        private static final String CONTENT_TYPE = "application/gzip";
+
+        private final @Nonnull ConfigRepo.Snapshot snapshot;
+        private final @Nonnull byte[] data;
+
+        private ConfigBundle(@Nonnull ConfigRepo.Snapshot snapshot, @Nonnull String url) throws IOException {
+            this.snapshot = snapshot;
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            snapshot.writeTo(out, url);
+            this.data = out.toByteArray();
+        }
+    }
+
+    // Catch up with config changes executor already knows about
+    private static void observe(@CheckForNull AbstractEntity entity) {
+        Pool.Updater.getInstance().observe(entity);
     }
 
     private String unknownExecutor(String executorUrl, String configRepoUrl) {
@@ -301,6 +429,7 @@ public class Api implements RootAction {
 
         String ocr = Pool.getInstance().getConfigRepoUrl(); // Fail early when there is no config
         ReturnNodeRequest request = Entity.fromInputStream(req.getInputStream(), ReturnNodeRequest.class);
+        observe(request);
         String ecr = request.getConfigRepoUrl();
         if (!Objects.equals(ocr, ecr)) { // TODO we do not require this anywhere else, should we?
             rsp.getWriter().println("Unable to return node - config repo mismatch " + ocr + " != " + ecr);
@@ -309,7 +438,8 @@ public class Api implements RootAction {
         }
 
         Jenkins jenkins = Jenkins.getInstance();
-        Computer c = jenkins.getComputer(request.getNodeName());
+        Node n = jenkins.getNode(request.getNodeName());
+        Computer c = n == null ? null : n.toComputer();
         if (c == null) {
             LOGGER.info(
                     "An attempt to return a node '" + request.getNodeName() + "' that does not exist by " + request.getExecutorUrl()
@@ -349,4 +479,19 @@ public class Api implements RootAction {
         // TODO Report status
         rsp.setStatus(HttpServletResponse.SC_OK);
     }
+
+    /**
+     * Request to refresh the config repo, typically sent by a config repo push hook.
+     *
+     * The refresh is performed asynchronously and requests arriving shortly after each other are served by single
+     * fetch. Responds with "202 Accepted".
+     */
+    @RequirePOST
+    public void doRefresh(@Nonnull final StaplerRequest req, @Nonnull final StaplerResponse rsp) throws IOException {
+        Jenkins.getInstance().checkPermission(RestEndpoint.RESERVE);
+
+        Pool.getInstance().getConfigRepoUrl(); // Fail early when there is no config
+        Pool.Updater.getInstance().scheduleRefresh();
+        rsp.setStatus(HttpServletResponse.SC_ACCEPTED);
+    }
 }
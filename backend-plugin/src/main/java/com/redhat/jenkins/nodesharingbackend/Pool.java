@@ -30,11 +30,16 @@ import com.cloudbees.plugins.credentials.common.UsernamePasswordCredentials;
 import com.cloudbees.plugins.credentials.domains.DomainRequirement;
 import com.cloudbees.plugins.credentials.impl.UsernamePasswordCredentialsImpl;
 import com.google.common.annotations.VisibleForTesting;
+import com.redhat.jenkins.nodesharing.CoalescingTrigger;
 import com.redhat.jenkins.nodesharing.ConfigRepo;
 import com.redhat.jenkins.nodesharing.ConfigRepoAdminMonitor;
+import com.redhat.jenkins.nodesharing.ConfigRepoManagementLink;
+import com.redhat.jenkins.nodesharing.ConfigRevisionTracker;
 import com.redhat.jenkins.nodesharing.ExecutorJenkins;
 import com.redhat.jenkins.nodesharing.NodeDefinition;
+import com.redhat.jenkins.nodesharing.PollingSchedule;
 import com.redhat.jenkins.nodesharing.TaskLog;
+import com.redhat.jenkins.nodesharing.transport.AbstractEntity;
 import hudson.AbortException;
 import hudson.Extension;
 import hudson.ExtensionList;
@@ -42,12 +47,16 @@ import hudson.Functions;
 import hudson.Util;
 import hudson.init.InitMilestone;
 import hudson.init.Initializer;
+import hudson.init.Terminator;
 import hudson.model.Computer;
+import hudson.model.Node;
 import hudson.model.PeriodicWork;
 import hudson.model.Queue;
 import hudson.security.ACL;
+import hudson.security.ACLContext;
 import jenkins.model.GlobalConfiguration;
 import jenkins.model.Jenkins;
+import jenkins.model.NodeListener;
 import org.jenkinsci.Symbol;
 import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.DoNotUse;
@@ -64,10 +73,14 @@ import javax.servlet.http.HttpServletResponse;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -89,13 +102,14 @@ public class Pool extends GlobalConfiguration {
 
     @Extension
     public static final ConfigRepoAdminMonitor ADMIN_MONITOR = new ConfigRepoAdminMonitor();
+    @Extension
+    public static final ConfigRepoManagementLink MANAGEMENT_LINK = new ConfigRepoManagementLink(
+            "node-sharing-orchestrator", "Node Sharing Orchestrator", ADMIN_MONITOR
+    );
     private static final String MONITOR_CONTEXT = "Primary Config Repo";
 
-    private final Object configLock = new Object();
-
-    // TODO consider persisting in case of crash with broken config in repo
-    @GuardedBy("configLock")
-    private @CheckForNull ConfigRepo.Snapshot config = null;
+    // Published atomically so readers never block. Last good one is persisted by Updater to be available right after restart
+    private final AtomicReference<ConfigRepo.Snapshot> config = new AtomicReference<>();
 
     public static @Nonnull Pool getInstance() {
         ExtensionList<Pool> list = Jenkins.getInstance().getExtensionList(Pool.class);
@@ -134,8 +148,8 @@ public class Pool extends GlobalConfiguration {
             return cred;
         }
 
-        if(getConfig().getConfig().containsKey(ConfigRepo.KEY_CREDENTIAL_ID)) {
-            String poolCredentialId = getConfig().getConfig().get(ConfigRepo.KEY_CREDENTIAL_ID);
+        String poolCredentialId = getConfig().getConfig().get(ConfigRepo.KEY_CREDENTIAL_ID);
+        if(poolCredentialId != null) {
 
             LOGGER.finest("using pool wide credential with id " + poolCredentialId + " for " + executor.getName());
 
@@ -179,40 +193,46 @@ public class Pool extends GlobalConfiguration {
     public Pool() {}
 
     public @Nonnull ConfigRepo.Snapshot getConfig() throws PoolMisconfigured {
-        synchronized (configLock) {
-            if (config != null) return config;
-            String configRepoUrl = getConfigRepoUrl(); // Rise more specific exception if the problem is missing config property
-            throw new PoolMisconfigured("No config snapshot loaded from " + configRepoUrl);
-        }
+        ConfigRepo.Snapshot config = this.config.get();
+        if (config != null) return config;
+        String configRepoUrl = getConfigRepoUrl(); // Rise more specific exception if the problem is missing config property
+        throw new PoolMisconfigured("No config snapshot loaded from " + configRepoUrl);
+    }
+
+    /**
+     * Config repo commit of the current snapshot.
+     *
+     * @return Commit id or null when no snapshot was loaded.
+     */
+    public @CheckForNull String getConfigRevision() {
+        ConfigRepo.Snapshot config = this.config.get();
+        return config == null ? null : config.getSource();
     }
 
     private void updateConfig(@Nonnull ConfigRepo.Snapshot config) {
         boolean needsReconfiguration = false;
-        synchronized (configLock) {
-            String oldRev = this.config == null ? null : this.config.getSource();
-            String newRev = config.getSource();
-            this.config = config;
-            if (!newRev.equals(oldRev)) {
-                LOGGER.info("Config repo updated from " + oldRev + " to " + newRev);
-                needsReconfiguration = true;
-            }
+        ConfigRepo.Snapshot old = this.config.getAndSet(config);
+        String oldRev = old == null ? null : old.getSource();
+        String newRev = config.getSource();
+        if (!newRev.equals(oldRev)) {
+            LOGGER.info("Config repo updated from " + oldRev + " to " + newRev);
+            needsReconfiguration = true;
         }
 
         if (needsReconfiguration) {
             updateOrchestrator(config);
 
-            // Start grid verification immediately after config repo change in a separate thread
-            Computer.threadPoolForRemoting.submit(new Runnable() {
-                @Override
-                public void run() {
-                    ReservationVerifier.getInstance().doRun();
-                }
-            });
+            // Start grid verification immediately after config repo change, merged with the one in progress if any
+            ReservationVerifier.getInstance().trigger();
         }
     }
 
     private void updateOrchestrator(final ConfigRepo.Snapshot config) {
         final Jenkins j = Jenkins.getInstance();
+        // Jenkins#setNodes notifies no NodeListener so the changes are announced here
+        final List<Node> created = new ArrayList<>();
+        final List<Node> updated = new ArrayList<>();
+        final List<Node> deleted = new ArrayList<>();
         // Use queue lock so pool changes appear atomic from perspective of Queue#maintian and Api#doReportWorkload
         Queue.withLock(new Runnable() {
             @Override public void run() {
@@ -233,38 +253,66 @@ public class Pool extends GlobalConfiguration {
                 }
             }
 
+            // Compute the complete node list and apply it at once so nodes and labels are recomputed only once
             private void updateNodes(final Map<String, NodeDefinition> configured) {
-                Map<String, ShareableNode> existing = ShareableNode.getAll();
-                ArrayList<String> removed = new ArrayList<>(existing.keySet());
-                removed.removeAll(configured.keySet());
-
-                ArrayList<String> added = new ArrayList<>(configured.keySet());
-                added.removeAll(existing.keySet());
-
-                ArrayList<String> updated = new ArrayList<>(configured.keySet());
-                updated.removeAll(removed);
-                updated.removeAll(added);
-
-                for (String remove : removed) {
-                    ShareableNode n = existing.get(remove);
-                    n.deleteWhenIdle();
-                }
+                List<Node> nodes = new ArrayList<>(j.getNodes().size() + configured.size());
+                Set<String> existing = new HashSet<>();
+                for (Node node : j.getNodes()) {
+                    if (!(node instanceof ShareableNode)) {
+                        nodes.add(node);
+                        continue;
+                    }
 
-                for (String update : updated) {
-                    existing.get(update).updateBy(configured.get(update));
+                    ShareableNode n = (ShareableNode) node;
+                    existing.add(n.getNodeName());
+                    NodeDefinition definition = configured.get(n.getNodeName());
+                    if (definition != null) {
+                        // Definitions of nodes not changed since last snapshot are reused as is
+                        if (definition != n.getNodeDefinition()) {
+                            n.updateBy(definition);
+                            updated.add(n);
+                        }
+                        nodes.add(n);
+                    } else if (!n.prepareForDeletion()) {
+                        // Kept until idle to be collected by DanglingNodeDeleter
+                        nodes.add(n);
+                    } else {
+                        deleted.add(n);
+                    }
                 }
 
-                for (String add : added) {
+                for (Map.Entry<String, NodeDefinition> add : configured.entrySet()) {
+                    if (existing.contains(add.getKey())) continue;
                     try {
-                        ShareableNode node = new ShareableNode(configured.get(add));
-                        j.addNode(node);
+                        ShareableNode n = new ShareableNode(add.getValue());
+                        nodes.add(n);
+                        created.add(n);
                     } catch (Exception ex) {
                         // Continue with other changes - this will be reattempted
-                        LOGGER.log(Level.WARNING, "Unable to add node " + add, ex);
+                        LOGGER.log(Level.WARNING, "Unable to add node " + add.getKey(), ex);
                     }
                 }
+
+                try {
+                    j.setNodes(nodes);
+                } catch (IOException ex) {
+                    // Shareable nodes are ephemeral, this can only be caused by persisting the other ones
+                    LOGGER.log(Level.WARNING, "Unable to persist nodes", ex);
+                }
             }
         });
+
+        // Outside of the queue lock, same as Jenkins does for individual node changes
+        for (Node node : created) {
+            NodeListener.fireOnCreated(node);
+        }
+        // Nodes are updated in place so there is no old instance to report
+        for (Node node : updated) {
+            NodeListener.fireOnUpdated(node, node);
+        }
+        for (Node node : deleted) {
+            NodeListener.fireOnDeleted(node);
+        }
     }
 
     /**
@@ -277,15 +325,34 @@ public class Pool extends GlobalConfiguration {
         Jenkins jenkins = Jenkins.getInstance();
         jenkins.doQuietDown(); // Prevent builds to be scheduled during the process
         jenkins.getQueue().clear(); // Clear any items that might be there from before restart - we can get more recent here
-        try {
-            Updater.getInstance().doRun();
-        } catch (PoolMisconfigured ex) {
-            // Do not treat the fatally. Show inactive orchestrator instead with problems reported.
-            ex.printStackTrace();
+        final Updater updater = Updater.getInstance();
+        if (updater.restore()) {
+            // Serve from persisted snapshot right away, the repository might be slow or unreachable
+            Computer.threadPoolForRemoting.submit(new Runnable() {
+                @Override public void run() {
+                    // Same as periodic work doing the update otherwise
+                    try (ACLContext ctx = ACL.as(ACL.SYSTEM)) {
+                        updater.update();
+                    } catch (Exception ex) {
+                        LOGGER.log(Level.WARNING, "Unable to refresh config snapshot after startup", ex);
+                    }
+                }
+            });
+        } else {
+            try {
+                updater.update();
+            } catch (PoolMisconfigured ex) {
+                // Do not treat the fatally. Show inactive orchestrator instead with problems reported.
+                ex.printStackTrace();
+            }
         }
-        ReservationVerifier.getInstance().doRun(); // Schedule all lost items
-        jenkins.doCancelQuietDown();
-        LOGGER.info(jenkins.getQueue().getItems().length + " reservations still in queue");
+        // Schedule all lost items, accepting builds again once done
+        ReservationVerifier.getInstance().trigger().whenComplete((result, ex) -> {
+            try (ACLContext ctx = ACL.as(ACL.SYSTEM)) {
+                jenkins.doCancelQuietDown();
+            }
+            LOGGER.info(jenkins.getQueue().getItems().length + " reservations still in queue");
+        });
     }
 
     @Extension
@@ -299,28 +366,166 @@ public class Pool extends GlobalConfiguration {
             return list.iterator().next();
         }
 
+        /**
+         * Config repo changes are expected to be announced through {@link Api#doRefresh} so polling is only a fallback
+         * for missed notifications. It is checked every minute whether it is time to poll.
+         */
+        private final PollingSchedule polling = new PollingSchedule();
+
+        private final CoalescingTrigger refresh = new CoalescingTrigger("config repo refresh", new Runnable() {
+            @Override public void run() {
+                Collection<String> triggeredBy = revisions.refreshing();
+                boolean succeeded = false;
+                try {
+                    succeeded = update();
+                } catch (Exception ex) {
+                    LOGGER.log(Level.WARNING, "Failed refreshing config repo", ex);
+                } finally {
+                    revisions.refreshed(triggeredBy, succeeded);
+                }
+            }
+        });
+
+        private final ConfigRevisionTracker revisions = new ConfigRevisionTracker(refresh);
+
+        public Updater() {
+            ADMIN_MONITOR.track(MONITOR_CONTEXT, polling);
+        }
+
         @Override
         public long getRecurrencePeriod() {
             return Functions.getIsUnitTest() ? Long.MAX_VALUE : MIN;
         }
 
-        @Override @VisibleForTesting
+        @Override
         public void doRun() throws Exception {
+            if (polling.isDue()) {
+                update();
+            }
+        }
+
+        /**
+         * Refresh the config shortly. Requests arriving close to each other are served by a single fetch.
+         */
+        public void scheduleRefresh() {
+            refresh.trigger();
+        }
+
+        /**
+         * Refresh the config shortly if the entity received from executor was sent using different config revision.
+         */
+        public void observe(@CheckForNull AbstractEntity entity) {
+            revisions.observe(Pool.getInstance().getConfigRevision(), entity);
+        }
+
+        // Kept across runs so snapshots are built from the previous one
+        @GuardedBy("this")
+        private @CheckForNull ConfigRepo repo;
+
+        // Source of the snapshot persisted last
+        @GuardedBy("this")
+        private @CheckForNull String persistedSource;
+
+        private synchronized @Nonnull ConfigRepo getRepo(@Nonnull String url) {
+            if (repo == null || !repo.getUrl().equals(url)) {
+                if (repo != null) {
+                    repo.close();
+                }
+                repo = new ConfigRepo(url, CONFIG_DIR);
+            }
+            return repo;
+        }
+
+        @Terminator @Restricted(DoNotUse.class)
+        public static void closeRepo() {
+            Updater updater = getInstance();
+            synchronized (updater) {
+                if (updater.repo != null) {
+                    updater.repo.close();
+                }
+            }
+        }
+
+        /**
+         * Read the config repo right away.
+         *
+         * @return true if the snapshot was read.
+         */
+        // Serialized so a snapshot read by a triggered refresh can not be overwritten by an older one read by polling
+        @VisibleForTesting
+        public synchronized boolean update() throws Exception {
             Pool pool = Pool.getInstance();
             String configEndpoint;
             try {
                 configEndpoint = pool.getConfigRepoUrl();
             } catch (PoolMisconfigured ex) {
-                return;
+                return false;
             }
 
-            ConfigRepo repo = new ConfigRepo(configEndpoint, CONFIG_DIR);
+            ConfigRepo repo = getRepo(configEndpoint);
 
             Pool.ADMIN_MONITOR.clear();
+            ConfigRepo.Snapshot snapshot;
             try {
-                pool.updateConfig(repo.getSnapshot());
+                snapshot = repo.getSnapshot();
             } catch (IOException | TaskLog.TaskFailed ex) {
                 Pool.ADMIN_MONITOR.report(MONITOR_CONTEXT, ex);
+                polling.record(PollingSchedule.Outcome.FAILED);
+                return false;
+            }
+            polling.record(snapshot.getSource().equals(pool.getConfigRevision())
+                    ? PollingSchedule.Outcome.UNCHANGED
+                    : PollingSchedule.Outcome.CHANGED
+            );
+            pool.updateConfig(snapshot);
+            persist(configEndpoint, snapshot);
+            return true;
+        }
+
+        /**
+         * Load the snapshot persisted before restart.
+         *
+         * @return true if the snapshot was loaded and applied.
+         */
+        /*package*/ boolean restore() {
+            Pool pool = Pool.getInstance();
+            String configEndpoint;
+            try {
+                configEndpoint = pool.getConfigRepoUrl();
+            } catch (PoolMisconfigured ex) {
+                return false;
+            }
+
+            ConfigRepo.Snapshot snapshot;
+            try {
+                snapshot = ConfigRepo.Snapshot.load(getSnapshotFile(), configEndpoint);
+            } catch (IOException ex) {
+                LOGGER.log(Level.WARNING, "Unable to load persisted config snapshot", ex);
+                return false;
+            }
+            if (snapshot == null) return false;
+
+            LOGGER.info("Restoring config snapshot " + snapshot.getSource() + " of " + configEndpoint);
+            synchronized (this) {
+                persistedSource = snapshot.getSource();
+            }
+            getRepo(configEndpoint).restore(snapshot);
+            pool.updateConfig(snapshot);
+            return true;
+        }
+
+        // Resolved for every use as the Jenkins home differs between test instances sharing the class
+        private static @Nonnull File getSnapshotFile() {
+            return new File(Jenkins.getInstance().getRootDir(), "node-sharing/config-snapshot.json.gz");
+        }
+
+        private synchronized void persist(@Nonnull String configEndpoint, @Nonnull ConfigRepo.Snapshot snapshot) {
+            if (snapshot.getSource().equals(persistedSource)) return;
+            try {
+                snapshot.save(getSnapshotFile(), configEndpoint);
+                persistedSource = snapshot.getSource();
+            } catch (IOException ex) {
+                LOGGER.log(Level.WARNING, "Unable to persist config snapshot", ex);
             }
         }
     }
@@ -0,0 +1,117 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.redhat.jenkins.nodesharingbackend;
+
+import com.redhat.jenkins.nodesharing.ExecutorJenkins;
+import hudson.Extension;
+import hudson.ExtensionList;
+import jenkins.model.Jenkins;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index of running reservations by node name and by owner.
+ *
+ * Reservations are registered once their execution starts and removed once completed so they can be looked up without
+ * scanning all the computers.
+ *
+ * @see ReservationTask.ReservationExecutable
+ */
+@Extension
+@Restricted(NoExternalUse.class)
+public class ReservationRegistry {
+
+    private final ConcurrentHashMap<String, ReservationTask.ReservationExecutable> byNode = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<ExecutorJenkins, Set<ReservationTask.ReservationExecutable>> byOwner = new ConcurrentHashMap<>();
+
+    public static @Nonnull ReservationRegistry getInstance() {
+        ExtensionList<ReservationRegistry> list = Jenkins.getInstance().getExtensionList(ReservationRegistry.class);
+        assert list.size() == 1;
+        return list.iterator().next();
+    }
+
+    /*package*/ void register(@Nonnull ReservationTask.ReservationExecutable reservation) {
+        String nodeName = reservation.getNodeName();
+        if (nodeName == null) throw new IllegalArgumentException("Reservation not started: " + reservation);
+
+        byNode.put(nodeName, reservation);
+        byOwner.compute(reservation.getParent().getOwner(), (owner, reservations) -> {
+            if (reservations == null) {
+                reservations = ConcurrentHashMap.newKeySet();
+            }
+            reservations.add(reservation);
+            return reservations;
+        });
+    }
+
+    /*package*/ void unregister(@Nonnull ReservationTask.ReservationExecutable reservation) {
+        String nodeName = reservation.getNodeName();
+        if (nodeName == null) return; // Never registered
+
+        byNode.remove(nodeName, reservation);
+        byOwner.computeIfPresent(reservation.getParent().getOwner(), (owner, reservations) -> {
+            reservations.remove(reservation);
+            return reservations.isEmpty() ? null : reservations;
+        });
+    }
+
+    /**
+     * Get the reservation occupying the node.
+     *
+     * @return The reservation or null when the node is idle.
+     */
+    public @CheckForNull ReservationTask.ReservationExecutable getReservation(@Nonnull String nodeName) {
+        return byNode.get(nodeName);
+    }
+
+    /**
+     * Get reservations of particular executor.
+     */
+    public @Nonnull Collection<ReservationTask.ReservationExecutable> getReservations(@Nonnull ExecutorJenkins owner) {
+        Set<ReservationTask.ReservationExecutable> reservations = byOwner.get(owner);
+        if (reservations == null) return Collections.emptyList();
+        return new ArrayList<>(reservations);
+    }
+
+    /**
+     * Get all running reservations grouped by owner.
+     */
+    public @Nonnull Map<ExecutorJenkins, Collection<ReservationTask.ReservationExecutable>> getReservations() {
+        Map<ExecutorJenkins, Collection<ReservationTask.ReservationExecutable>> out = new HashMap<>();
+        for (Map.Entry<ExecutorJenkins, Set<ReservationTask.ReservationExecutable>> e : byOwner.entrySet()) {
+            out.put(e.getKey(), new ArrayList<>(e.getValue()));
+        }
+        return out;
+    }
+}
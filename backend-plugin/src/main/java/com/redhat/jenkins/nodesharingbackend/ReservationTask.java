@@ -23,8 +23,10 @@
  */
 package com.redhat.jenkins.nodesharingbackend;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.redhat.jenkins.nodesharing.ActionFailed;
 import com.redhat.jenkins.nodesharing.ExecutorJenkins;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import hudson.model.Computer;
 import hudson.model.Executor;
 import hudson.model.Label;
@@ -33,16 +35,23 @@ import hudson.model.Queue;
 import hudson.model.ResourceList;
 import hudson.model.queue.AbstractQueueTask;
 import hudson.security.ACL;
+import hudson.security.ACLContext;
 import hudson.security.AccessControlled;
 import hudson.security.Permission;
-import hudson.util.OneShotEvent;
 import jenkins.model.Jenkins;
 import jenkins.model.queue.AsynchronousExecution;
+import jenkins.util.Timer;
 import org.acegisecurity.AccessDeniedException;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -58,6 +67,14 @@ import java.util.logging.Logger;
 public class ReservationTask extends AbstractQueueTask implements AccessControlled {
     private static final Logger LOGGER = Logger.getLogger(ReservationTask.class.getName());
 
+    /**
+     * Delay before reattempting to get the node utilized while the pool is misconfigured.
+     */
+    @SuppressFBWarnings("MS_SHOULD_BE_FINAL")
+    @VisibleForTesting
+    @Restricted(NoExternalUse.class)
+    public static long UTILIZE_RETRY_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
     private final @Nonnull ExecutorJenkins jenkins;
     private final @Nonnull String label;
     private final @Nonnull String taskName;
@@ -147,7 +164,10 @@ public class ReservationTask extends AbstractQueueTask implements AccessControll
     }
 
     @Override public @CheckForNull Queue.Executable createExecutable() {
-        return new ReservationExecutable(this);
+        // Invoked by the executor the task was assigned to
+        ReservationExecutable executable = new ReservationExecutable(this);
+        executable.occupy();
+        return executable;
     }
 
     @Override
@@ -184,9 +204,15 @@ public class ReservationTask extends AbstractQueueTask implements AccessControll
     public static class ReservationExecutable implements Queue.Executable {
 
         private final @Nonnull ReservationTask task;
-        private @CheckForNull String nodeName; // Assigned as soon as execution starts
+        private @CheckForNull String nodeName; // Assigned as soon as the computer is occupied
         private @Nonnull String taskName;
-        private @Nonnull OneShotEvent done = new OneShotEvent();
+
+        // Assigned as soon as execution starts
+        @GuardedBy("this")
+        private @CheckForNull Lease lease;
+        // Completed, possibly even before the execution started
+        @GuardedBy("this")
+        private boolean done;
 
         protected ReservationExecutable(@Nonnull ReservationTask task) {
             this.task = task;
@@ -207,62 +233,92 @@ public class ReservationTask extends AbstractQueueTask implements AccessControll
             return nodeName;
         }
 
+        /**
+         * Start the reservation and return the executor thread right away.
+         *
+         * The executor stays occupied by the lease until {@link #complete()} is called.
+         */
         @Override
         public void run() throws AsynchronousExecution {
             ShareableComputer computer = getExecutingComputer();
-            nodeName = computer.getName();
-            task.url = task.getUrlToNode(nodeName);
-            String executorName = task.getOwner().getName();
-            taskName = "Reservation of " + nodeName + " by " + executorName + " (qid=" + task.qid + ", hash=" + System.identityHashCode(task) + ")";
             LOGGER.info(taskName + " started");
             ShareableNode node = computer.getNode();
             if (node == null) throw new AssertionError(); // $COVERAGE-IGNORE$
 
-            if (!task.backfill) {
-                while (true) {
-                    boolean accepted;
-                    try {
-                        accepted = Api.getInstance().utilizeNode(task.jenkins, node);
-                    } catch (Pool.PoolMisconfigured ex) {
-                        // Loop for as long as the pool is broken
-                        LOGGER.warning(ex.getMessage());
-                        try {
-                            Thread.sleep(1000 * 60 * 5);
-                        } catch (InterruptedException e) {
-                            Thread.currentThread().interrupt();
-                            e.addSuppressed(ex);
-                            LOGGER.log(Level.INFO, taskName + " interrupted", e);
-                            return;
+            Lease lease = new Lease();
+            boolean completedAlready;
+            synchronized (this) {
+                this.lease = lease;
+                completedAlready = done;
+            }
+
+            if (completedAlready) {
+                lease.completed(null);
+            } else if (!task.backfill) {
+                utilize(node);
+            }
+
+            // TODO This this point, we might want to a) check/wait until executor creates the node and b) expose that
+            // for ReservationVerifier to help balance executor nodes with running reservations
+            throw lease;
+        }
+
+        private void utilize(@Nonnull final ShareableNode node) {
+            CompletableFuture<Boolean> accepted;
+            try {
+                accepted = Api.getInstance().utilizeNodeAsync(task.jenkins, node);
+            } catch (Pool.PoolMisconfigured ex) {
+                // Retry for as long as the pool is broken
+                LOGGER.warning(ex.getMessage());
+                Timer.get().schedule(new Runnable() {
+                    @Override public void run() {
+                        try (ACLContext ctx = ACL.as(ACL.SYSTEM)) {
+                            if (!isDone()) {
+                                utilize(node);
+                            }
                         }
-                        continue;
-                    } catch (ActionFailed.RequestTimeout ex) {
+                    }
+                }, UTILIZE_RETRY_MILLIS, TimeUnit.MILLISECONDS);
+                return;
+            } catch (Throwable ex) {
+                LOGGER.log(Level.SEVERE, taskName + " failed to get the node utilized", ex);
+                end();
+                return;
+            }
+
+            // Completing the lease changes executor and queue state so it does not belong to the http client IO thread
+            accepted.whenCompleteAsync((result, ex) -> {
+                try (ACLContext ctx = ACL.as(ACL.SYSTEM)) {
+                    if (ex == null) {
+                        if (!result) {
+                            LOGGER.info(taskName + " rejected by executor");
+                            end();
+                        }
+                        return; // Reserved successfully - wait for node return
+                    }
+
+                    Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+                    if (cause instanceof ActionFailed.RequestTimeout) {
                         // This is a conservative approach to not knowing whether the request passed or not. We presume
                         // it did so we keep the node reserved because underutilizing resources is less disruptive than
                         // non-exclusive lease would we risk by stopping the ReservationTask here.
                         LOGGER.log(Level.WARNING, "utilizeNode request timed out, continuing the reservation speculatively");
-                        break;
-                    } catch (Throwable ex) {
-                        LOGGER.log(Level.SEVERE, taskName + " failed to get the node utilized", ex);
-                        return;
-                    }
-                    if (!accepted) {
-                        LOGGER.info(taskName + " rejected by executor");
-                        return; // Abort reservation
                     } else {
-                        break; // Reserved successfully - wait for node return
+                        LOGGER.log(Level.SEVERE, taskName + " failed to get the node utilized", cause);
+                        end();
                     }
                 }
-            }
+            }, Computer.threadPoolForRemoting);
+        }
 
-            // TODO This this point, we might want to a) check/wait until executor creates the node and b) expose that
-            // for ReservationVerifier to help balance executor nodes with running reservations
-            try {
-                done.block();
-                LOGGER.info(taskName + " completed");
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                LOGGER.log(Level.INFO, taskName + " interrupted", e);
-            }
+        // Track the reservation from the moment the computer is occupied
+        private void occupy() {
+            ShareableComputer computer = getExecutingComputer();
+            nodeName = computer.getName();
+            task.url = task.getUrlToNode(nodeName);
+            String executorName = task.getOwner().getName();
+            taskName = "Reservation of " + nodeName + " by " + executorName + " (qid=" + task.qid + ", hash=" + System.identityHashCode(task) + ")";
+            ReservationRegistry.getInstance().register(this);
         }
 
         private @Nonnull ShareableComputer getExecutingComputer() {
@@ -274,12 +330,74 @@ public class ReservationTask extends AbstractQueueTask implements AccessControll
             return (ShareableComputer) owner;
         }
 
+        private synchronized boolean isDone() {
+            return done;
+        }
+
         public void complete() {
-            done.signal();
+            if (end()) {
+                LOGGER.info(taskName + " completed");
+            }
+        }
+
+        /**
+         * End the reservation, no matter if started already.
+         *
+         * @return true if this call ended the reservation.
+         */
+        private boolean end() {
+            Lease lease;
+            synchronized (this) {
+                if (done) return false;
+                done = true;
+                lease = this.lease;
+            }
+            ReservationRegistry.getInstance().unregister(this);
+
+            // Not started yet, will be completed right away once it does
+            if (lease == null) return true;
+
+            lease.completed(null);
+            return true;
+        }
+
+        /**
+         * Forget the reservation once the executor is done with it, even if it was not completed.
+         */
+        /*package*/ void release() {
+            boolean completed;
+            synchronized (this) {
+                completed = done;
+                done = true;
+            }
+            ReservationRegistry.getInstance().unregister(this);
+            if (!completed) {
+                LOGGER.warning(taskName + " ended without completing");
+            }
         }
 
         @Override public String toString() {
             return taskName;
         }
+
+        /**
+         * Reservation occupying the executor without a thread.
+         */
+        private final class Lease extends AsynchronousExecution {
+
+            @Override public void interrupt(boolean forShutdown) {
+                LOGGER.info(taskName + " interrupted");
+                end();
+            }
+
+            // Reservations can last arbitrary long, the same way builds do
+            @Override public boolean blocksRestart() {
+                return true;
+            }
+
+            @Override public boolean displayCell() {
+                return true;
+            }
+        }
     }
 }
@@ -27,16 +27,22 @@ import com.google.common.annotations.VisibleForTesting;
 import com.redhat.jenkins.nodesharing.ConfigRepo;
 import com.redhat.jenkins.nodesharing.ExecutorJenkins;
 import com.redhat.jenkins.nodesharing.RestEndpoint;
+import com.redhat.jenkins.nodesharing.transport.ReportUsageResponse;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import hudson.Extension;
 import hudson.ExtensionList;
 import hudson.Functions;
+import hudson.model.Computer;
 import hudson.model.PeriodicWork;
 import jenkins.model.Jenkins;
+import jenkins.util.Timer;
 import org.apache.commons.collections.CollectionUtils;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -46,6 +52,11 @@ import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -84,6 +95,12 @@ import java.util.logging.Logger;
 public class ReservationVerifier extends PeriodicWork {
     private static final Logger LOGGER = Logger.getLogger(ReservationVerifier.class.getName());
 
+    // Time in ms all executors have to respond in a single query, accommodating the crumb request and the query itself
+    @SuppressFBWarnings("MS_SHOULD_BE_FINAL")
+    @VisibleForTesting
+    @Restricted(NoExternalUse.class)
+    public static long QUERY_TIMEOUT = RestEndpoint.TIMEOUT * 2L;
+
     public static @Nonnull ReservationVerifier getInstance() {
         ExtensionList<ReservationVerifier> list = Jenkins.getInstance().getExtensionList(ReservationVerifier.class);
         assert list.size() == 1;
@@ -97,36 +114,157 @@ public class ReservationVerifier extends PeriodicWork {
 
     @Override
     public void doRun() {
+        trigger();
+    }
+
+    /**
+     * Start the verification unless already running.
+     *
+     * @return Future completed once the grid was verified.
+     */
+    public @Nonnull CompletableFuture<?> trigger() {
         ConfigRepo.Snapshot config;
         try {
             config = Pool.getInstance().getConfig();
         } catch (Pool.PoolMisconfigured ex) {
-            return; // NOOP if not configured
+            return CompletableFuture.completedFuture(null); // NOOP if not configured
         }
 
-        verify(config, Api.getInstance());
+        return verify(config, Api.getInstance());
     }
 
+    // Verification in progress
+    @GuardedBy("ReservationVerifier.class")
+    private static @CheckForNull Verification running;
+    // Verification to be started once the running one completes
+    @GuardedBy("ReservationVerifier.class")
+    private static @CheckForNull Verification next;
+
+    /**
+     * Verify the grid state asynchronously.
+     *
+     * Verifications requested while other one is running are merged into a single one started once the running one
+     * completes, using the latest config.
+     *
+     * @return Future completed once the grid was verified.
+     */
     @VisibleForTesting
-    @SuppressFBWarnings(value="SWL_SLEEP_WITH_LOCK_HELD")
-    synchronized public static void verify(ConfigRepo.Snapshot config, Api api) {
-        // Capture multiple plans so we can identify long-lasting problems. The number of samples and delay is to be fine-tuned.
-        ArrayList<Map<ExecutorJenkins, PlannedFixup>> plans = new ArrayList<>();
-        plans.add(computePlannedFixup(config, api));
-        if (plans.get(0).isEmpty()) return; // If there is nothing to do, no need to doublecheck
+    synchronized public static @Nonnull CompletableFuture<?> verify(ConfigRepo.Snapshot config, Api api) {
+        if (running == null) {
+            running = new Verification(config, api);
+            running.start();
+            return running.done;
+        }
 
-        LOGGER.info("Collecting more samples to recover the grid state");
+        next = next == null
+                ? new Verification(config, api)
+                : next.update(config, api)
+        ;
+        return next.done;
+    }
 
-        try {
-            Thread.sleep(RestEndpoint.TIMEOUT * 2);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            return;
+    synchronized private static void completed(@Nonnull Verification verification) {
+        assert running == verification;
+        running = next;
+        next = null;
+        if (running != null) {
+            running.start();
+        }
+    }
+
+    /**
+     * Single verification pass.
+     *
+     * Capture multiple plans so we can identify long-lasting problems, waiting between the samples without holding a
+     * thread. The number of samples and delay is to be fine-tuned.
+     */
+    private static final class Verification {
+        private final @Nonnull ConfigRepo.Snapshot config;
+        private final @Nonnull Api api;
+        private final @Nonnull CompletableFuture<Void> done;
+
+        private Verification(@Nonnull ConfigRepo.Snapshot config, @Nonnull Api api) {
+            this(config, api, new CompletableFuture<Void>());
         }
 
-        plans.add(computePlannedFixup(config, api));
-        Map<ExecutorJenkins, PlannedFixup> plan = PlannedFixup.reduce(plans);
+        private Verification(@Nonnull ConfigRepo.Snapshot config, @Nonnull Api api, @Nonnull CompletableFuture<Void> done) {
+            this.config = config;
+            this.api = api;
+            this.done = done;
+        }
 
+        // Merge with later request keeping the future the callers wait for
+        private @Nonnull Verification update(@Nonnull ConfigRepo.Snapshot config, @Nonnull Api api) {
+            return new Verification(config, api, done);
+        }
+
+        private void start() {
+            // Sampling waits for executors to respond so it does not belong to timer threads
+            Computer.threadPoolForRemoting.submit(new Runnable() {
+                @Override public void run() {
+                    sampleFirst();
+                }
+            });
+        }
+
+        private void sampleFirst() {
+            final Map<ExecutorJenkins, PlannedFixup> first;
+            try {
+                first = computePlannedFixup(config, api);
+            } catch (Throwable ex) {
+                complete(ex);
+                return;
+            }
+
+            if (first.isEmpty()) { // If there is nothing to do, no need to doublecheck
+                complete(null);
+                return;
+            }
+
+            LOGGER.info("Collecting more samples to recover the grid state");
+
+            try {
+                Timer.get().schedule(new Runnable() {
+                    @Override public void run() {
+                        Computer.threadPoolForRemoting.submit(new Runnable() {
+                            @Override public void run() {
+                                sampleSecond(first);
+                            }
+                        });
+                    }
+                }, RestEndpoint.TIMEOUT * 2, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException ex) { // Shutting down
+                complete(ex);
+            }
+        }
+
+        private void sampleSecond(@Nonnull Map<ExecutorJenkins, PlannedFixup> first) {
+            try {
+                ArrayList<Map<ExecutorJenkins, PlannedFixup>> plans = new ArrayList<>();
+                plans.add(first);
+                plans.add(computePlannedFixup(config, api));
+                apply(PlannedFixup.reduce(plans));
+            } catch (Throwable ex) {
+                complete(ex);
+                return;
+            }
+            complete(null);
+        }
+
+        private void complete(@CheckForNull Throwable problem) {
+            if (problem != null) {
+                LOGGER.log(Level.WARNING, "Failed verifying the grid state", problem);
+            }
+            completed(this);
+            if (problem == null) {
+                done.complete(null);
+            } else {
+                done.completeExceptionally(problem);
+            }
+        }
+    }
+
+    private static void apply(@Nonnull Map<ExecutorJenkins, PlannedFixup> plan) {
         // First kill all dangling reservations, then schedule new ones across the orchestrator to make sure backfills
         // are not blocked by reservations we are about to kill
 
@@ -137,13 +275,7 @@ public class ReservationVerifier extends PeriodicWork {
         for (Map.Entry<ExecutorJenkins, PlannedFixup> e2pf : plan.entrySet()) {
             ExecutorJenkins executor = e2pf.getKey();
             for (String cancel : e2pf.getValue().toCancel) {
-                ShareableComputer computer;
-                try {
-                    computer = ShareableComputer.getByName(cancel);
-                } catch (NoSuchElementException e) {
-                    continue;
-                }
-                ReservationTask.ReservationExecutable reservation = computer.getReservation();
+                ReservationTask.ReservationExecutable reservation = ReservationRegistry.getInstance().getReservation(cancel);
 
                 if (reservation == null) continue;
                 ReservationTask parent = reservation.getParent();
@@ -219,17 +351,42 @@ public class ReservationVerifier extends PeriodicWork {
     }
 
     private static @Nonnull Map<ExecutorJenkins, Set<String>> queryExecutorReservations(
-            @Nonnull Set<ExecutorJenkins> jenkinses, @Nonnull Api api
+            @Nonnull Set<ExecutorJenkins> jenkinses, @Nonnull final Api api
     ) {
+        // Send all queries at once so unresponsive executors do not delay the rest
+        Map<ExecutorJenkins, CompletableFuture<ReportUsageResponse>> queries = new HashMap<>();
         Map<ExecutorJenkins, Set<String>> responses = new HashMap<>();
         for (ExecutorJenkins executorJenkins : jenkinses) {
             try {
-                responses.put(executorJenkins, new HashSet<>(api.reportUsage(executorJenkins).getUsedNodes()));
+                queries.put(executorJenkins, api.reportUsageAsync(executorJenkins));
             } catch (Exception e) {
                 responses.put(executorJenkins, null);
                 LOGGER.log(Level.SEVERE, "Jenkins master '" + executorJenkins + "' didn't respond correctly:", e);
             }
         }
+
+        // Shared by all the executors so the query is bounded no matter how many of them are slow. Responses arrived by
+        // the time are collected even after the deadline passed.
+        long timeout = QUERY_TIMEOUT;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        for (Map.Entry<ExecutorJenkins, CompletableFuture<ReportUsageResponse>> query : queries.entrySet()) {
+            ExecutorJenkins executorJenkins = query.getKey();
+            long remaining = Math.max(0, deadline - System.nanoTime());
+            try {
+                responses.put(executorJenkins, new HashSet<>(query.getValue().get(remaining, TimeUnit.NANOSECONDS).getUsedNodes()));
+            } catch (TimeoutException e) {
+                // The request is not holding any thread, the http client closes it once its own timeout passes
+                responses.put(executorJenkins, null);
+                LOGGER.severe("Jenkins master '" + executorJenkins + "' didn't respond in " + timeout + "ms");
+            } catch (ExecutionException e) {
+                responses.put(executorJenkins, null);
+                LOGGER.log(Level.SEVERE, "Jenkins master '" + executorJenkins + "' didn't respond correctly:", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                responses.put(executorJenkins, null);
+                LOGGER.log(Level.SEVERE, "Jenkins master '" + executorJenkins + "' didn't respond correctly:", e);
+            }
+        }
         return responses;
     }
 
@@ -245,15 +402,17 @@ public class ReservationVerifier extends PeriodicWork {
             all.put(jenkins, new HashMap<String, ReservationTask.ReservationExecutable>());
         }
 
-        for (ReservationTask.ReservationExecutable rex: ShareableComputer.getAllReservations().values()) {
-            if (rex == null) continue;
-            ExecutorJenkins owner = rex.getParent().getOwner();
+        Map<ExecutorJenkins, Collection<ReservationTask.ReservationExecutable>> reservations = ReservationRegistry.getInstance().getReservations();
+        for (Map.Entry<ExecutorJenkins, Collection<ReservationTask.ReservationExecutable>> e : reservations.entrySet()) {
+            ExecutorJenkins owner = e.getKey();
             Map<String, ReservationTask.ReservationExecutable> list = all.get(owner);
             if (list == null) {
                 list = new HashMap<>();
                 all.put(owner, list);
             }
-            list.put(rex.getNodeName(), rex);
+            for (ReservationTask.ReservationExecutable rex : e.getValue()) {
+                list.put(rex.getNodeName(), rex);
+            }
             // Make sure executors no longer in config repo yet still occupying hosts are added
             jenkinses.add(owner);
         }
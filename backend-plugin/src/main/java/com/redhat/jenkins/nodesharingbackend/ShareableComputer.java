@@ -26,6 +26,7 @@ package com.redhat.jenkins.nodesharingbackend;
 import hudson.Functions;
 import hudson.model.Computer;
 import hudson.model.Executor;
+import hudson.model.Node;
 import hudson.model.Queue;
 import hudson.model.Slave;
 import hudson.remoting.Channel;
@@ -71,19 +72,32 @@ import static javax.servlet.http.HttpServletResponse.SC_NOT_FOUND;
 public class ShareableComputer extends SlaveComputer implements EphemeralNode {
     private final Channel channel;
 
+    /**
+     * Get all shareable computers with their reservations.
+     *
+     * Prefer {@link ReservationRegistry} when only the running reservations are needed.
+     *
+     * @return Mapping with null values for idle computers.
+     */
     public static Map<ShareableComputer, ReservationTask.ReservationExecutable> getAllReservations() {
+        ReservationRegistry registry = ReservationRegistry.getInstance();
         Map<ShareableComputer, ReservationTask.ReservationExecutable> out = new HashMap<>();
-        for (Computer computer : Jenkins.getInstance().getComputers()) {
+        // Node list is kept as is unlike the computers that are copied and sorted on every call
+        for (Node node : Jenkins.getInstance().getNodes()) {
+            if (!(node instanceof ShareableNode)) continue;
+
+            Computer computer = node.toComputer();
             if (computer instanceof ShareableComputer) {
-                ShareableComputer shareableComputer = (ShareableComputer) computer;
-                out.put(shareableComputer, shareableComputer.getReservation());
+                out.put((ShareableComputer) computer, registry.getReservation(node.getNodeName()));
             }
         }
         return out;
     }
 
     public static ShareableComputer getByName(String name) throws NoSuchElementException {
-        Computer computer = Jenkins.getInstance().getComputer(name);
+        // Node lookup is indexed unlike the computer one
+        Node node = Jenkins.getInstance().getNode(name);
+        Computer computer = node == null ? null : node.toComputer();
         if (computer instanceof ShareableComputer) {
             return (ShareableComputer) computer;
         }
@@ -112,6 +126,12 @@ public class ShareableComputer extends SlaveComputer implements EphemeralNode {
      * @return The task or null when the computer is idle.
      */
     public @CheckForNull ReservationTask.ReservationExecutable getReservation() {
+        assert checkExecutables();
+        return ReservationRegistry.getInstance().getReservation(getName());
+    }
+
+    // The registry is not consulted as it is updated slightly before and after the executor takes and frees the executable
+    private boolean checkExecutables() {
         List<Queue.Executable> executables = new ArrayList<>();
         for (Executor executor : getExecutors()) {
             Queue.Executable executable = executor.getCurrentExecutable();
@@ -119,17 +139,34 @@ public class ShareableComputer extends SlaveComputer implements EphemeralNode {
                 executables.add(executable);
             }
         }
-        switch (executables.size()) {
-            case 0: return null;
-            case 1:
-                Queue.Executable executable = executables.get(0);
-                if (!(executable instanceof ReservationTask.ReservationExecutable)) {
-                    throw new IllegalStateException(
-                            "Unknown task running on ShareableComputer: " + executable.getClass().getName()
-                    );
-                }
-                return (ReservationTask.ReservationExecutable) executable;
-            default: throw new IllegalStateException("More than a single task running on ShareableComputer: " + executables);
+        if (executables.size() > 1) {
+            throw new AssertionError("More than a single task running on ShareableComputer: " + executables);
+        }
+        for (Queue.Executable executable : executables) {
+            if (!(executable instanceof ReservationTask.ReservationExecutable)) {
+                throw new AssertionError("Unknown task running on ShareableComputer: " + executable.getClass().getName());
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void taskCompleted(Executor executor, Queue.Task task, long durationMS) {
+        super.taskCompleted(executor, task, durationMS);
+        releaseReservation(task);
+    }
+
+    @Override
+    public void taskCompletedWithProblems(Executor executor, Queue.Task task, long durationMS, Throwable problems) {
+        super.taskCompletedWithProblems(executor, task, durationMS, problems);
+        releaseReservation(task);
+    }
+
+    // Execution can end without completing the reservation, like when it fails before the reservation is started
+    private void releaseReservation(@Nonnull Queue.Task task) {
+        ReservationTask.ReservationExecutable reservation = ReservationRegistry.getInstance().getReservation(getName());
+        if (reservation != null && reservation.getParent() == task) {
+            reservation.release();
         }
     }
 
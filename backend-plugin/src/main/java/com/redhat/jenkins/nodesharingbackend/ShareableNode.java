@@ -134,17 +134,7 @@ public final class ShareableNode extends Slave implements EphemeralNode {
      * Delete the node now if idle or once it becomes idle.
      */
     public void deleteWhenIdle() {
-        Computer c = toComputer();
-        if (c != null) {
-            c.setTemporarilyOffline(true, PENDING_DELETION);
-            if (!c.isIdle()) {
-                // Postpone deletion until idle.
-                // Note that RunListener is not invoked as we are not executing Runs and using ExecutorListener is hackish
-                // as it is invoked before the computer is considered idle. Keeping it temp-offline then to be collected
-                // by DanglingNodeDeleter.
-                return;
-            }
-        }
+        if (!prepareForDeletion()) return;
 
         try {
             Jenkins j = Jenkins.getInstance();
@@ -154,6 +144,23 @@ public final class ShareableNode extends Slave implements EphemeralNode {
         }
     }
 
+    /**
+     * Mark the node to be deleted so it does not accept new reservations.
+     *
+     * Note that RunListener is not invoked as we are not executing Runs and using ExecutorListener is hackish as it is
+     * invoked before the computer is considered idle. Node that is not idle is kept temp-offline then to be collected by
+     * {@link DanglingNodeDeleter}.
+     *
+     * @return true if the node can be removed right away.
+     */
+    /*package*/ boolean prepareForDeletion() {
+        Computer c = toComputer();
+        if (c == null) return true;
+
+        c.setTemporarilyOffline(true, PENDING_DELETION);
+        return c.isIdle();
+    }
+
     /**
      * Delayed deletion promised by {@link ShareableNode#deleteWhenIdle()}.
      */
@@ -201,8 +208,6 @@ public final class ShareableNode extends Slave implements EphemeralNode {
         assert getNodeName().equals(definition.getName());
 
         synchronized (nodeSharingAttributesLock) {
-            assert definition instanceof NodeDefinition.Xml;
-
             this.nodeDefinition = definition;
             try {
                 setLabelString(definition.getLabel());
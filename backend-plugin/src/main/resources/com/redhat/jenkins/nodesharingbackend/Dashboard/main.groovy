@@ -1,10 +1,10 @@
 package com.redhat.jenkins.nodesharingbackend.Dashboard
 
 import com.redhat.jenkins.nodesharing.ConfigRepo
-import com.redhat.jenkins.nodesharing.ConfigRepoAdminMonitor
 import com.redhat.jenkins.nodesharingbackend.Dashboard
 import com.redhat.jenkins.nodesharingbackend.Pool
 import com.redhat.jenkins.nodesharingbackend.Pool.PoolMisconfigured
+import com.redhat.jenkins.nodesharingbackend.ReservationRegistry
 
 Dashboard d = my
 
@@ -13,13 +13,22 @@ h1(d.displayName)
 Pool pool = Pool.getInstance()
 try {
     ConfigRepo.Snapshot snapshot = pool.getConfig()
-    p { text("Controlled by config repo at ${pool.getConfigRepoUrl()}") }
+    p {
+        text("Controlled by config repo at ${pool.getConfigRepoUrl()}. ")
+        a(href: "${rootURL}/${Pool.MANAGEMENT_LINK.urlName}") {
+            text("Polling status")
+        }
+    }
     table {
         tr {
             th {
                 text("Executor Jenkins")
             }
+            th {
+                text("Reservations")
+            }
         }
+        ReservationRegistry registry = ReservationRegistry.getInstance()
         snapshot.jenkinses.each { executor ->
             tr {
                 td {
@@ -27,12 +36,15 @@ try {
                         text(executor.name)
                     }
                 }
+                td {
+                    text(registry.getReservations(executor).size())
+                }
             }
         }
     }
 } catch (PoolMisconfigured ex) {
     div(class: "error") {
-        a(href: ConfigRepoAdminMonitor.instance.url) {
+        a(href: "${rootURL}/${Pool.ADMIN_MONITOR.url}") {
             text(ex.message)
         }
     }
@@ -263,18 +263,18 @@ public class GridTest {
         jcr.configRepo().commit("Writing a new Orchestrator URL");
         assertThat(config.readToString(), containsString("orchestrator.url=" + o1.getUri()));
 
-        // Make sure updated config is propagated through the grid
-        executorClient0.runScript("Jenkins.instance.getExtensionList(com.redhat.jenkins.nodesharingfrontend.SharedNodeCloud.ConfigRepoUpdater.class).get(0).doRun();");
+        // Make sure updated config is propagated through the grid. Executor does not wait for the orchestrator it uses
+        executorClient0.runScript("Jenkins.instance.getExtensionList(com.redhat.jenkins.nodesharingfrontend.SharedNodeCloud.ConfigRepoUpdater.class).get(0).update();");
         assertThat(executorClient0.runScript(
                 "com.redhat.jenkins.nodesharingfrontend.SharedNodeCloud.getAll().get(0).getLatestConfig().getOrchestratorUrl();"),
                 equalTo("Result: " + o1.getUri() + "\n")
         );
-        orchestratorClient1.runScript("com.redhat.jenkins.nodesharingbackend.Pool.Updater.getInstance().doRun();");
+        orchestratorClient1.runScript("com.redhat.jenkins.nodesharingbackend.Pool.Updater.getInstance().update();");
         assertThat(orchestratorClient1.runScript(
                 "com.redhat.jenkins.nodesharingbackend.Pool.getInstance().getConfig().getOrchestratorUrl();"),
                 equalTo("Result: " + o1.getUri() + "\n")
         );
-        orchestratorClient2.runScript("com.redhat.jenkins.nodesharingbackend.Pool.Updater.getInstance().doRun();");
+        orchestratorClient2.runScript("com.redhat.jenkins.nodesharingbackend.Pool.Updater.getInstance().update();");
         assertThat(orchestratorClient2.runScript(
                 "com.redhat.jenkins.nodesharingbackend.Pool.getInstance().getConfig().getOrchestratorUrl();"),
                 equalTo("Result: " + o1.getUri() + "\n")
@@ -0,0 +1,96 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.redhat.jenkins.nodesharing;
+
+import com.redhat.jenkins.nodesharing.utils.NodeSharingJenkinsRule;
+import com.redhat.jenkins.nodesharing.utils.TestUtils;
+import com.redhat.jenkins.nodesharingbackend.Pool;
+import com.redhat.jenkins.nodesharingbackend.ShareableNode;
+import org.jenkinsci.plugins.gitclient.GitClient;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runners.model.Statement;
+import org.jvnet.hudson.test.RestartableJenkinsRule;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verify orchestrator serves the config it had before restart when the config repo can not be read.
+ */
+public class PoolRestartTest {
+
+    @Rule
+    public RestartableJenkinsRule rr = new RestartableJenkinsRule();
+
+    private GitClient configRepo;
+    private String revision;
+
+    @Before
+    public void setUp() throws Exception {
+        configRepo = TestUtils.createConfigRepo();
+        System.setProperty(Pool.CONFIG_REPO_PROPERTY_NAME, configRepo.getWorkTree().getRemote());
+        System.setProperty(Pool.USERNAME_PROPERTY_NAME, NodeSharingJenkinsRule.USER);
+        System.setProperty(Pool.PASSWORD_PROPERTY_NAME, NodeSharingJenkinsRule.USER);
+    }
+
+    @Test
+    public void restoreConfigSnapshotWhenRepoUnreachable() throws Exception {
+        rr.addStep(new Statement() {
+            @Override public void evaluate() throws Throwable {
+                assertThat(rr.j.jenkins.getNode("win1.acme.com"), instanceOf(ShareableNode.class));
+                revision = Pool.getInstance().getConfigRevision();
+                assertNotNull(revision);
+
+                configRepo.getWorkTree().deleteRecursive();
+            }
+        });
+        rr.addStep(new Statement() {
+            @Override public void evaluate() throws Throwable {
+                try {
+                    assertThat(rr.j.jenkins.getNode("win1.acme.com"), instanceOf(ShareableNode.class));
+                    assertEquals(revision, Pool.getInstance().getConfigRevision());
+
+                    // Refresh in the background fails keeping the restored config in place
+                    final PollingSchedule polling = Pool.ADMIN_MONITOR.getPolling().get("Primary Config Repo");
+                    long deadline = System.currentTimeMillis() + 30000;
+                    while (polling.getLastOutcome() != PollingSchedule.Outcome.FAILED) {
+                        assertTrue("Refresh failed", System.currentTimeMillis() < deadline);
+                        Thread.sleep(100);
+                    }
+                    assertThat(rr.j.jenkins.getNode("win1.acme.com"), instanceOf(ShareableNode.class));
+                    assertEquals(revision, Pool.getInstance().getConfigRevision());
+                } finally {
+                    System.clearProperty(Pool.USERNAME_PROPERTY_NAME);
+                    System.clearProperty(Pool.PASSWORD_PROPERTY_NAME);
+                    System.clearProperty(Pool.CONFIG_REPO_PROPERTY_NAME);
+                }
+            }
+        });
+    }
+}
@@ -24,6 +24,8 @@
 package com.redhat.jenkins.nodesharing;
 
 import com.cloudbees.plugins.credentials.common.UsernamePasswordCredentials;
+import com.redhat.jenkins.nodesharing.transport.ExecutorEntity;
+import com.redhat.jenkins.nodesharing.transport.ReportUsageResponse;
 import com.redhat.jenkins.nodesharing.utils.NodeSharingJenkinsRule;
 import com.redhat.jenkins.nodesharing.utils.NodeSharingJenkinsRule.BlockingTask;
 import com.redhat.jenkins.nodesharing.utils.NodeSharingJenkinsRule.MockTask;
@@ -37,14 +39,17 @@ import com.redhat.jenkins.nodesharingbackend.ShareableNode;
 import com.redhat.jenkins.nodesharingfrontend.SharedNodeCloud;
 import hudson.AbortException;
 import hudson.FilePath;
+import hudson.Util;
 import hudson.model.Computer;
 import hudson.model.Label;
 import hudson.model.Node;
 import hudson.model.Queue;
+import hudson.model.labels.LabelAtom;
 import hudson.model.queue.ScheduleResult;
 import hudson.plugins.git.GitException;
 import hudson.slaves.DumbSlave;
 import jenkins.model.Jenkins;
+import jenkins.model.NodeListener;
 import jenkins.util.Timer;
 import org.hamcrest.MatcherAssert;
 import org.hamcrest.Matchers;
@@ -53,9 +58,11 @@ import org.junit.Assert;
 import org.junit.Ignore;
 import org.junit.Rule;
 import org.junit.Test;
-import org.mockito.Mockito;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestExtension;
 import org.mockito.internal.util.reflection.Whitebox;
 
+import javax.annotation.Nonnull;
 import javax.servlet.http.HttpServletResponse;
 import java.io.File;
 import java.io.IOException;
@@ -67,7 +74,9 @@ import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Random;
 import java.util.concurrent.Future;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static com.redhat.jenkins.nodesharingbackend.Pool.CONFIG_REPO_PROPERTY_NAME;
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -81,6 +90,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
@@ -99,7 +109,7 @@ public class PoolTest {
         System.clearProperty(CONFIG_REPO_PROPERTY_NAME);
         eraseLoadConfig();
 
-        Updater.getInstance().doRun();
+        Updater.getInstance().update();
         try {
             Pool.getInstance().getConfig();
             fail();
@@ -112,7 +122,7 @@ public class PoolTest {
 
     private void eraseLoadConfig() throws IOException {
         // There is meaningful value set from startup - erase it
-        Whitebox.setInternalState(Pool.getInstance(), "config", null);
+        ((AtomicReference<?>) Whitebox.getInternalState(Pool.getInstance(), "config")).set(null);
         j.jenkins.setNodes(Collections.<Node>emptyList());
     }
 
@@ -164,7 +174,7 @@ public class PoolTest {
 
         cr.add("*");
         cr.commit("Setup");
-        Updater.getInstance().doRun();
+        Updater.getInstance().update();
 
         Pool pool = Pool.getInstance();
         Map<String, String> config = pool.getConfig().getConfig();
@@ -202,7 +212,7 @@ public class PoolTest {
 
         cr.add("*");
         cr.commit("Break it!");
-        Updater.getInstance().doRun();
+        Updater.getInstance().update();
 
         Pool pool = Pool.getInstance();
 
@@ -221,6 +231,67 @@ public class PoolTest {
         Pool.ADMIN_MONITOR.clear();
     }
 
+    @Test
+    public void refreshConfigOnRequest() throws Exception {
+        GitClient cr = j.getConfigRepo();
+        FilePath poolConfig = cr.getWorkTree().child("config");
+        poolConfig.write(poolConfig.readToString() + "refreshed=true\n", Charset.defaultCharset().name());
+        cr.add("*");
+        cr.commit("Announce me");
+        String head = cr.revParse("HEAD").name();
+
+        Pool pool = Pool.getInstance();
+        assertNotEquals(head, pool.getConfig().getSource());
+
+        RestEndpoint rest = new RestEndpoint(j.getURL().toExternalForm(), Api.getInstance().getUrlName(), j.getRestCredential());
+        for (int i = 0; i < 3; i++) { // Coalesced into single update
+            ResponseCaptor.Capture refresh = rest.executeRequest(rest.post("refresh"), new ResponseCaptor());
+            assertThat(refresh.statusLine.getStatusCode(), equalTo(HttpServletResponse.SC_ACCEPTED));
+        }
+
+        for (int i = 0; i < 300 && !head.equals(pool.getConfig().getSource()); i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(head, pool.getConfig().getSource());
+        assertEquals("true", pool.getConfig().getConfig().get("refreshed"));
+    }
+
+    @Test
+    public void refreshConfigWhenPeerUsesDifferentRevision() throws Exception {
+        GitClient cr = j.getConfigRepo();
+        FilePath poolConfig = cr.getWorkTree().child("config");
+        poolConfig.write(poolConfig.readToString() + "refreshed=true\n", Charset.defaultCharset().name());
+        cr.add("*");
+        cr.commit("Learn from executor");
+        String head = cr.revParse("HEAD").name();
+
+        Pool pool = Pool.getInstance();
+        String current = pool.getConfigRevision();
+        assertNotEquals(head, current);
+
+        // Sent with the revision in use or by a peer not aware of revisions
+        Updater.getInstance().observe(new ReportUsageResponse(
+                new ExecutorEntity.Fingerprint(pool.getConfigRepoUrl(), "4.2", "https://jenkins1.acme.com", current),
+                Collections.<String>emptyList()
+        ));
+        Updater.getInstance().observe(new ReportUsageResponse(
+                new ExecutorEntity.Fingerprint(pool.getConfigRepoUrl(), "4.2", "https://jenkins1.acme.com"),
+                Collections.<String>emptyList()
+        ));
+        Thread.sleep(CoalescingTrigger.WINDOW + 1000);
+        assertEquals(current, pool.getConfigRevision());
+
+        Updater.getInstance().observe(new ReportUsageResponse(
+                new ExecutorEntity.Fingerprint(pool.getConfigRepoUrl(), "4.2", "https://jenkins1.acme.com", head),
+                Collections.<String>emptyList()
+        ));
+        for (int i = 0; i < 300 && !head.equals(pool.getConfigRevision()); i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(head, pool.getConfigRevision());
+        assertEquals("true", pool.getConfig().getConfig().get("refreshed"));
+    }
+
     @Test
     public void getPoolWideCredentialsFromJenkinsBroken() throws Exception {
         GitClient cr = j.getConfigRepo();
@@ -231,7 +302,7 @@ public class PoolTest {
         poolConfig.write(newConfig.toString(), Charset.defaultCharset().name());
         cr.add("*");
         cr.commit("Break it!");
-        Updater.getInstance().doRun();
+        Updater.getInstance().update();
 
         Pool pool = Pool.getInstance();
 
@@ -248,7 +319,7 @@ public class PoolTest {
         // Case 1 - recovered from previously stored config repo
         ConfigRepo mockConfigRepo = spy(repo);
         mockConfigRepo.getSnapshot();
-        when(mockConfigRepo.getRemoteHead(Mockito.any(TaskLog.class))).thenThrow(new GitException("Not available"));
+        when(mockConfigRepo.getRemoteHead()).thenThrow(new GitException("Not available"));
         try {
             mockConfigRepo.getSnapshot();
         } catch (TaskLog.TaskFailed e) {
@@ -257,7 +328,7 @@ public class PoolTest {
 
         // Case 2 - trying to recover from not existing config repo (wasn't saved previously)
         mockConfigRepo = spy(repo);
-        when(mockConfigRepo.getRemoteHead(Mockito.any(TaskLog.class))).thenThrow(new GitException("Git not available - intentionally"));
+        when(mockConfigRepo.getRemoteHead()).thenThrow(new GitException("Git not available - intentionally"));
         try {
             mockConfigRepo.getSnapshot();
             fail("TaskLog.TaskFailed exception should be thrown!");
@@ -267,22 +338,13 @@ public class PoolTest {
             assertThat(e.getLog().readContent(), containsString("Git not available - intentionally"));
         }
 
-        // Case 3 - trying to recover from corrupted config repo (was saved previously, but can't read the config)
+        // Case 3 - recovered from previous snapshot even when local repository is gone
         mockConfigRepo = spy(repo);
-        mockConfigRepo.getSnapshot();
-        when(mockConfigRepo.getRemoteHead(Mockito.any(TaskLog.class))).thenThrow(new GitException("Git not available - corrupted repo"));
-        final File f = new File(workingDir, "config");
-        assertTrue("config file should exist", f.exists());
-        f.delete();
-        assertFalse("config file should be deleted", f.exists());
-        try {
-            mockConfigRepo.getSnapshot();
-            fail("TaskLog.TaskFailed exception should be thrown!");
-        } catch (TaskLog.TaskFailed e) {
-            assertThat(e, instanceOf(TaskLog.TaskFailed.class));
-            assertThat(e.getMessage(), containsString("Unable to read config repository"));
-            assertThat(e.getLog().readContent(), containsString("ERROR: No file named 'config' found in Config Repository"));
-        }
+        ConfigRepo.Snapshot snapshot = mockConfigRepo.getSnapshot();
+        when(mockConfigRepo.getRemoteHead()).thenThrow(new GitException("Git not available - corrupted repo"));
+        Util.deleteRecursive(workingDir);
+        assertFalse("local repository should be deleted", workingDir.exists());
+        assertSame(snapshot, mockConfigRepo.getSnapshot());
     }
 
     @Test
@@ -301,7 +363,7 @@ public class PoolTest {
         git.commit("Update"); // New commit is needed to force computer update
 
         for (int i = 0; i < 2; i++) { // Update with no changes preserves state
-            Updater.getInstance().doRun();
+            Updater.getInstance().update();
 
             MatcherAssert.assertThat(j.jenkins.getComputers(), arrayWithSize(7));
             assertSame(win1, j.getNode("win1.acme.com"));
@@ -329,7 +391,7 @@ public class PoolTest {
         solarisXml.write(newConfig, Charset.defaultCharset().name());
         git.add("nodes/*");
         git.commit("Update");
-        Updater.getInstance().doRun();
+        Updater.getInstance().update();
 
         Assert.assertEquals("windows w2k16", j.getNode("windows.acme.com").getLabelString());
         Assert.assertEquals("solaris solaris12 sparc", j.getNode("solaris1.acme.com").getLabelString());
@@ -341,6 +403,60 @@ public class PoolTest {
         assertNotNull(j.jenkins.getNode(doNotTouchMe.getNodeName()));
     }
 
+    @Test
+    public void notifyNodeListeners() throws Exception {
+        NodeEvents events = j.jenkins.getExtensionList(NodeListener.class).get(NodeEvents.class);
+        events.clear();
+
+        GitClient git = j.getConfigRepo();
+        FilePath workTree = git.getWorkTree().child("nodes");
+        workTree.child("win2.acme.com.xml").renameTo(workTree.child("windows.acme.com.xml"));
+        FilePath solarisXml = workTree.child("solaris1.acme.com.xml");
+        solarisXml.write(solarisXml.readToString().replace("solaris11", "solaris12"), Charset.defaultCharset().name());
+        git.add("nodes/*");
+        git.commit("Add, remove and update at once");
+        Updater.getInstance().update();
+
+        assertEquals(Collections.singletonList("windows.acme.com"), events.created);
+        assertEquals(Collections.singletonList("win2.acme.com"), events.deleted);
+        assertEquals(Collections.singletonList("solaris1.acme.com"), events.updated);
+        assertSame(j.getNode("solaris1.acme.com"), events.lastUpdated);
+
+        events.clear();
+        Updater.getInstance().update();
+        assertThat(events.created, Matchers.<String>empty());
+        assertThat(events.deleted, Matchers.<String>empty());
+        assertThat(events.updated, Matchers.<String>empty());
+    }
+
+    @TestExtension("notifyNodeListeners")
+    public static final class NodeEvents extends NodeListener {
+        private final List<String> created = new CopyOnWriteArrayList<>();
+        private final List<String> updated = new CopyOnWriteArrayList<>();
+        private final List<String> deleted = new CopyOnWriteArrayList<>();
+        private volatile Node lastUpdated;
+
+        private void clear() {
+            created.clear();
+            updated.clear();
+            deleted.clear();
+            lastUpdated = null;
+        }
+
+        @Override protected void onCreated(@Nonnull Node node) {
+            created.add(node.getNodeName());
+        }
+
+        @Override protected void onUpdated(@Nonnull Node oldOne, @Nonnull Node newOne) {
+            updated.add(newOne.getNodeName());
+            lastUpdated = newOne;
+        }
+
+        @Override protected void onDeleted(@Nonnull Node node) {
+            deleted.add(node.getNodeName());
+        }
+    }
+
     @Test
     public void workloadMapping() throws Exception {
         MockTask task = new MockTask(j.DUMMY_OWNER, Label.get("solaris11"));
@@ -365,6 +481,22 @@ public class PoolTest {
         assertFalse(startCondition.isDone());
     }
 
+    @Test
+    public void snapshotLabelIndex() throws Exception {
+        ConfigRepo.Snapshot config = Pool.getInstance().getConfig();
+
+        assertEquals(2, config.getNodes(LabelAtom.get("solaris")).size());
+        assertEquals(Collections.emptyList(), config.getNodes(LabelAtom.get("no_such_label")));
+
+        assertTrue(config.canProvision(Label.get("solaris11")));
+        assertTrue(config.canProvision(Label.parseExpression("solaris && !solaris10")));
+        assertTrue(config.canProvision(Label.parseExpression("w2k12 || no_such_label")));
+        assertFalse(config.canProvision(Label.get("no_such_label")));
+        assertFalse(config.canProvision(Label.parseExpression("solaris && windows")));
+        // Memoized
+        assertFalse(config.canProvision(Label.parseExpression("solaris && windows")));
+    }
+
     @Test
     public void removeNodeFromPool() throws Exception {
         GitClient gitClient = j.singleJvmGrid(j.jenkins);
@@ -372,14 +504,14 @@ public class PoolTest {
         Label label = Label.get("solaris11");
 
         assertEquals(6, ShareableComputer.getAllReservations().size());
-        j.jenkins.getExtensionList(SharedNodeCloud.ConfigRepoUpdater.class).iterator().next().doRun();
+        j.jenkins.getExtensionList(SharedNodeCloud.ConfigRepoUpdater.class).iterator().next().update();
         assertTrue(cloud.canProvision(label));
 
         killNode(gitClient, "solaris1.acme.com.xml");
-        Pool.Updater.getInstance().doRun();
+        Pool.Updater.getInstance().update();
 
         assertEquals(5, ShareableComputer.getAllReservations().size());
-        j.jenkins.getExtensionList(SharedNodeCloud.ConfigRepoUpdater.class).iterator().next().doRun();
+        j.jenkins.getExtensionList(SharedNodeCloud.ConfigRepoUpdater.class).iterator().next().update();
         assertFalse(cloud.canProvision(label));
     }
 
@@ -394,11 +526,11 @@ public class PoolTest {
         assertFalse("Computer occupied", j.getNode(DELETED_NODE).toComputer().isIdle());
 
         killNode(git, DELETED_NODE + ".xml");
-        Updater.getInstance().doRun();
+        Updater.getInstance().update();
 
         assertFalse("Node still exists and occupied", j.getNode(DELETED_NODE).toComputer().isIdle());
         Thread.sleep(1000); // It is not an accident
-        Updater.getInstance().doRun(); // Trigger the check
+        Updater.getInstance().update(); // Trigger the check
         assertFalse("Node still exists and occupied", j.getNode(DELETED_NODE).toComputer().isIdle());
 
         task.done.signal();
@@ -423,21 +555,21 @@ public class PoolTest {
         cr.getWorkTree().child("config").write("No orchestrator url here", "cp1250" /*muahaha*/);
         cr.add("*");
         cr.commit("Break it!");
-        updater.doRun();
+        updater.update();
         assertReports("ERROR: No orchestrator.url specified by Config Repository");
 
         Pool.ADMIN_MONITOR.clear();
         cr.getWorkTree().child("config").delete();
         cr.add("*");
         cr.commit("Break it!");
-        updater.doRun();
+        updater.update();
         assertReports("ERROR: No file named 'config' found in Config Repository");
 
         Pool.ADMIN_MONITOR.clear();
         cr.getWorkTree().child("jenkinses").deleteRecursive();
         cr.add("*");
         cr.commit("Break it!");
-        updater.doRun();
+        updater.update();
         assertReports("ERROR: No directory named 'jenkinses' found in Config Repository");
 
         //j.interactiveBreak();
@@ -449,6 +581,38 @@ public class PoolTest {
         // Multiple Executors with same URL
     }
 
+    @Test
+    public void reuseUnchangedEntriesOfSnapshot() throws Exception {
+        Updater updater = Updater.getInstance();
+        ConfigRepo.Snapshot original = Pool.getInstance().getConfig();
+        String nodeName = original.getNodes().keySet().iterator().next();
+
+        GitClient cr = j.getConfigRepo();
+        FilePath j2Config = cr.getWorkTree().child("jenkinses").child("jenkins2");
+        j2Config.write(j2Config.readToString() + "credential_id=" + j.getRestCredentialId(), "UTF-8");
+        cr.add("*");
+        cr.commit("Update jenkins2");
+        updater.update();
+
+        ConfigRepo.Snapshot updated = Pool.getInstance().getConfig();
+        assertNotEquals(original.getSource(), updated.getSource());
+        assertEquals(Collections.singleton("jenkins2"), updated.getChangedJenkinses());
+        assertEquals(Collections.emptySet(), updated.getChangedNodes());
+        assertSame(original.getConfig(), updated.getConfig());
+        assertSame(original.getJenkinsByName("jenkins1"), updated.getJenkinsByName("jenkins1"));
+        assertNotSame(original.getJenkinsByName("jenkins2"), updated.getJenkinsByName("jenkins2"));
+        for (Map.Entry<String, NodeDefinition> e : original.getNodes().entrySet()) {
+            assertSame(e.getValue(), updated.getNodes().get(e.getKey()));
+        }
+
+        killNode(cr, original.getNodes().get(nodeName).getDeclaringFileName());
+        updater.update();
+
+        updated = Pool.getInstance().getConfig();
+        assertEquals(Collections.singleton(nodeName), updated.getChangedNodes());
+        assertEquals(Collections.emptySet(), updated.getChangedJenkinses());
+    }
+
     @Test
     public void disallowHttpExecutorsUnlessExplicitlyPermitted() throws Exception {
         Updater updater = Updater.getInstance();
@@ -460,7 +624,7 @@ public class PoolTest {
         jenkinses.child("unsecured").write("url=http://example.com" + System.lineSeparator() + "enforce_https=false", "UTF-8");
         cr.add("*");
         cr.commit("Update");
-        updater.doRun();
+        updater.update();
 
         ConfigRepo.Snapshot config = Pool.getInstance().getConfig();
 
@@ -471,7 +635,7 @@ public class PoolTest {
         jenkinses.child("broken").write("url=http://example.com", "UTF-8");
         cr.add("*");
         cr.commit("Update");
-        updater.doRun();
+        updater.update();
 
         assertReports("ERROR: Jenkins 'broken' is using http protocol, https required");
         try {
@@ -485,7 +649,7 @@ public class PoolTest {
         jenkinses.child("broken").write("url=ci.example.com", "UTF-8");
         cr.add("*");
         cr.commit("Update");
-        updater.doRun();
+        updater.update();
 
         assertReports("ERROR: ci.example.com is not valid jenkins url");
         try {
@@ -504,7 +668,7 @@ public class PoolTest {
         cr.getWorkTree().child("config").write("orchestrator.url=https://example.com", "UTF-8");
         cr.add("*");
         cr.commit("Update");
-        updater.doRun();
+        updater.update();
 
         assertThat(Pool.getInstance().getConfig().getOrchestratorUrl(), equalTo("https://example.com"));
         assertThat(Pool.ADMIN_MONITOR.getErrors().values(), Matchers.emptyIterable());
@@ -512,7 +676,7 @@ public class PoolTest {
         cr.getWorkTree().child("config").write("orchestrator.url=http://example.com" + System.lineSeparator() + "enforce_https=false", "UTF-8");
         cr.add("*");
         cr.commit("Update");
-        updater.doRun();
+        updater.update();
 
         assertThat(Pool.getInstance().getConfig().getOrchestratorUrl(), equalTo("http://example.com"));
         assertThat(Pool.ADMIN_MONITOR.getErrors().values(), Matchers.emptyIterable());
@@ -520,12 +684,39 @@ public class PoolTest {
         cr.getWorkTree().child("config").write("orchestrator.url=http://broken.com", "UTF-8");
         cr.add("*");
         cr.commit("Update");
-        updater.doRun();
+        updater.update();
 
         assertThat(Pool.getInstance().getConfig().getOrchestratorUrl(), equalTo("http://example.com")); // Previous value
         assertReports("Orchestrator is using http protocol, https required");
     }
 
+    @Test
+    public void presentPollingWithoutProblems() throws Exception {
+        j.singleJvmGrid(j.jenkins);
+        String url = Pool.getInstance().getConfigRepoUrl();
+        j.addSharedNodeCloud(url);
+        j.jenkins.getExtensionList(SharedNodeCloud.ConfigRepoUpdater.class).get(0).update();
+        assertFalse(Pool.ADMIN_MONITOR.isActivated());
+        assertFalse(SharedNodeCloud.ADMIN_MONITOR.isActivated());
+
+        UsernamePasswordCredentials creds = j.getRestCredential();
+        j.getMockAuthorizationStrategy().grant(Jenkins.ADMINISTER).everywhere().to(creds.getUsername());
+        JenkinsRule.WebClient wc = j.createWebClient().login(creds.getUsername(), creds.getPassword().getPlainText());
+
+        String orchestrator = wc.goTo(Pool.MANAGEMENT_LINK.getUrlName()).getWebResponse().getContentAsString();
+        assertThat(orchestrator, containsString("Config repo polling"));
+        assertThat(orchestrator, containsString("Primary Config Repo"));
+
+        String executor = wc.goTo(SharedNodeCloud.MANAGEMENT_LINK.getUrlName()).getWebResponse().getContentAsString();
+        assertThat(executor, containsString("Config repo polling"));
+        assertThat(executor, containsString(url));
+        assertThat(executor, containsString("Recent config repo updates"));
+        assertThat(executor, containsString(ConfigRepo.getRecentLogs().get(0).getName()));
+
+        // Executor problems are presented as well
+        wc.goTo(SharedNodeCloud.ADMIN_MONITOR.getUrl());
+    }
+
     private void assertReports(String expected) throws Exception {
         UsernamePasswordCredentials creds = j.getRestCredential();
 
@@ -615,7 +806,7 @@ public class PoolTest {
         cr.getWorkTree().child("config").write("No orchestrator url here", "cp1250" /*muahaha*/);
         cr.add("*");
         cr.commit("Break it!");
-        Updater.getInstance().doRun();
+        Updater.getInstance().update();
 
         Pool pool = Pool.getInstance();
         RestEndpoint rest = new RestEndpoint(j.getURL().toExternalForm(), Api.getInstance().getUrlName(), j.getRestCredential());
@@ -74,6 +74,23 @@ public class RemovingExecutorFromConfigRepoTest {
         assertThat(discover.getDiagnosis(), containsString("Executor '" + j.getURL() + "' is not declared to be a member of the sharing pool in " + configRepoUrl));
     }
 
+    @Test
+    public void rejectConfigBundleForExecutorNotInConfigRepo() throws Exception {
+        GitClient gitClient = j.singleJvmGrid(j.jenkins);
+        j.disableLocalExecutor(gitClient);
+
+        String configRepoUrl = getInstance().getConfigRepoUrl();
+        SharedNodeCloud cloud = j.addSharedNodeCloud(configRepoUrl);
+
+        Api api = cloud.getApi();
+        try {
+            api.fetchConfigBundle(cloud.getLatestConfig());
+            fail("Config should be read from the repo by executor not part of the pool");
+        } catch (ActionFailed.RequestFailed ex) {
+            assertEquals(HttpServletResponse.SC_CONFLICT, ex.getStatusCode());
+        }
+    }
+
     @Test
     public void acceptDoReturnNodeFromExecutor() throws Exception {
         GitClient gitClient = j.singleJvmGrid(j.jenkins);
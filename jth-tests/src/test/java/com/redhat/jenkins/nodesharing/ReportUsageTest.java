@@ -95,7 +95,7 @@ public class ReportUsageTest {
         assertThat(j.jenkins.getNodes(), Matchers.<Node>iterableWithSize(declaredNodes.size() * 2));
         for (int i = 0; i < 3; i++) {
             // When usage is reported
-            ReservationVerifier.getInstance().doRun();
+            ReservationVerifier.getInstance().trigger().get();
             Thread.sleep(1000); // Queued reservations to get active
 
             // Then reservations are created
@@ -136,7 +136,7 @@ public class ReportUsageTest {
         Thread.sleep(5000); // Make sure it is not caused by timing
         assertEquals(1, j.getActiveReservations().size());
 
-        ReservationVerifier.getInstance().doRun();
+        ReservationVerifier.getInstance().trigger().get();
         Thread.sleep(1000);
 
         assertEquals(0, j.getActiveReservations().size());
@@ -26,7 +26,9 @@ package com.redhat.jenkins.nodesharing;
 import com.redhat.jenkins.nodesharing.utils.BlockingBuilder;
 import com.redhat.jenkins.nodesharing.utils.NodeSharingJenkinsRule;
 import com.redhat.jenkins.nodesharingbackend.Pool;
+import com.redhat.jenkins.nodesharingbackend.ReservationRegistry;
 import com.redhat.jenkins.nodesharingbackend.ReservationTask;
+import com.redhat.jenkins.nodesharingbackend.ShareableNode;
 import com.redhat.jenkins.nodesharingfrontend.SharedNodeCloud;
 import hudson.model.FreeStyleBuild;
 import hudson.model.FreeStyleProject;
@@ -40,9 +42,14 @@ import org.jenkinsci.plugins.gitclient.GitClient;
 import org.junit.Rule;
 import org.junit.Test;
 
+import java.io.IOException;
 import java.io.StringWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.arrayWithSize;
@@ -50,6 +57,7 @@ import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.emptyIterable;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
@@ -81,6 +89,139 @@ public class ReservationTest {
         assertThat(validation.renderHtml(), containsString("Orchestrator version is " + prop.getProperty("version")));
     }
 
+    @Test
+    public void trackReservationsInRegistry() throws Exception {
+        j.singleJvmGrid(j.jenkins);
+        ExecutorJenkins executor = j.getSomeExecutor();
+        ShareableNode node = j.getSomeShareableNode();
+        ReservationRegistry registry = ReservationRegistry.getInstance();
+        assertThat(registry.getReservations(executor), Matchers.<ReservationTask.ReservationExecutable>emptyIterable());
+
+        j.startDanglingReservation(executor, node);
+        ReservationTask.ReservationExecutable reservation = registry.getReservation(node.getNodeName());
+        assertSame(reservation, node.getComputer().getReservation());
+        assertThat(registry.getReservations(executor), Matchers.contains(reservation));
+        assertEquals(executor, reservation.getParent().getOwner());
+
+        reservation.complete();
+        assertNull(registry.getReservation(node.getNodeName()));
+        assertThat(registry.getReservations(executor), Matchers.<ReservationTask.ReservationExecutable>emptyIterable());
+        j.waitUntilNoActivity();
+    }
+
+    @Test
+    public void endReservationOnceNodeIsReturned() throws Exception {
+        j.singleJvmGrid(j.jenkins);
+        j.addSharedNodeCloud(Pool.getInstance().getConfigRepoUrl());
+
+        BlockingBuilder builder = j.getBlockingProject("solaris11");
+        QueueTaskFuture<FreeStyleBuild> build = builder.getProject().scheduleBuild2(0);
+        j.await("Build is waiting for node", 10000, () -> !j.jenkins.getQueue().getBuildableItems().isEmpty());
+        j.reportWorkloadToOrchestrator();
+        builder.start.block();
+
+        List<ReservationTask.ReservationExecutable> reservations = j.getActiveReservations();
+        assertEquals(1, reservations.size());
+        final String nodeName = reservations.get(0).getNodeName();
+        // Computer stays occupied by the reservation while the build runs
+        assertFalse(j.jenkins.getComputer(nodeName).isIdle());
+
+        builder.end.signal();
+        j.assertBuildStatusSuccess(build);
+
+        j.await("Reservation completed", 10000, () -> ReservationRegistry.getInstance().getReservation(nodeName) == null);
+        j.await("Computer released", 10000, () -> j.jenkins.getComputer(nodeName).isIdle());
+    }
+
+    @Test
+    public void endReservationRejectedByExecutor() throws Exception {
+        j.singleJvmGrid(j.jenkins);
+        j.addSharedNodeCloud(Pool.getInstance().getConfigRepoUrl());
+        ShareableNode node = j.getSomeShareableNode();
+
+        // No workload on executor so the node is rejected
+        ExecutorJenkins executor = new ExecutorJenkins(j.getURL().toExternalForm(), "name");
+        ReservationTask task = new ReservationTask(executor, Label.get(node.getNodeName()), "foo", 1L);
+        QueueTaskFuture<Queue.Executable> future = task.schedule().getFuture();
+        future.get(10, TimeUnit.SECONDS);
+
+        assertNull(ReservationRegistry.getInstance().getReservation(node.getNodeName()));
+        j.await("Computer released", 10000, () -> node.toComputer().isIdle());
+    }
+
+    @Test
+    public void keepReservationWhenUtilizeNodeTimesOut() throws Exception {
+        j.singleJvmGrid(j.jenkins);
+        ShareableNode node = j.getSomeShareableNode();
+
+        // Accept connections and never respond
+        try (ServerSocket server = new ServerSocket(0)) {
+            final List<Socket> connections = new CopyOnWriteArrayList<>();
+            Thread acceptor = new Thread(() -> {
+                try {
+                    while (true) {
+                        connections.add(server.accept());
+                    }
+                } catch (IOException e) {
+                    // Closed
+                }
+            });
+            acceptor.setDaemon(true);
+            acceptor.start();
+
+            ExecutorJenkins executor = new ExecutorJenkins("http://localhost:" + server.getLocalPort() + "/", "hung");
+            ReservationTask task = new ReservationTask(executor, Label.get(node.getNodeName()), "foo", 1L);
+            QueueTaskFuture<Queue.Executable> future = task.schedule().getFuture();
+            future.getStartCondition().get(10, TimeUnit.SECONDS);
+            j.await("utilizeNode sent", 10000, () -> !connections.isEmpty());
+
+            Thread.sleep(RestEndpoint.TIMEOUT + 5000);
+
+            // Presumed utilized
+            ReservationTask.ReservationExecutable reservation = ReservationRegistry.getInstance().getReservation(node.getNodeName());
+            assertNotNull(reservation);
+            assertFalse(future.isDone());
+
+            reservation.complete();
+            future.get(10, TimeUnit.SECONDS);
+            for (Socket connection : connections) {
+                connection.close();
+            }
+        }
+    }
+
+    @Test
+    public void retryUtilizeNodeWhilePoolIsMisconfigured() throws Exception {
+        j.singleJvmGrid(j.jenkins);
+        j.addSharedNodeCloud(Pool.getInstance().getConfigRepoUrl());
+        ShareableNode node = j.getSomeShareableNode();
+
+        long retry = ReservationTask.UTILIZE_RETRY_MILLIS;
+        String configRepo = System.getProperty(Pool.CONFIG_REPO_PROPERTY_NAME);
+        ReservationTask.UTILIZE_RETRY_MILLIS = 500;
+        try {
+            System.clearProperty(Pool.CONFIG_REPO_PROPERTY_NAME);
+
+            ExecutorJenkins executor = new ExecutorJenkins(j.getURL().toExternalForm(), "name");
+            ReservationTask task = new ReservationTask(executor, Label.get(node.getNodeName()), "foo", 1L);
+            QueueTaskFuture<Queue.Executable> future = task.schedule().getFuture();
+            future.getStartCondition().get(10, TimeUnit.SECONDS);
+
+            // Kept reserved while the executor can not be asked
+            Thread.sleep(2000);
+            assertFalse(future.isDone());
+            assertNotNull(ReservationRegistry.getInstance().getReservation(node.getNodeName()));
+
+            // Retried once fixed, rejected as there is no workload on the executor
+            System.setProperty(Pool.CONFIG_REPO_PROPERTY_NAME, configRepo);
+            future.get(10, TimeUnit.SECONDS);
+            assertNull(ReservationRegistry.getInstance().getReservation(node.getNodeName()));
+        } finally {
+            System.setProperty(Pool.CONFIG_REPO_PROPERTY_NAME, configRepo);
+            ReservationTask.UTILIZE_RETRY_MILLIS = retry;
+        }
+    }
+
     @Test
     public void runBuildSuccessfully() throws Exception {
         j.singleJvmGrid(j.jenkins);
@@ -253,6 +394,7 @@ public class ReservationTest {
         FreeStyleProject project = j.createFreeStyleProject("keep");
         project.setAssignedLabel(label);
 
+        cloud.getLatestConfig(); // canProvision does not wait for the config to be read
         assertTrue(cloud.canProvision(label));
         assertEquals(0, j.jenkins.getQueue().getBuildableItems().size());
         assertThat(j.getQueuedReservations(), emptyIterable());
@@ -22,6 +22,7 @@ import hudson.model.FreeStyleBuild;
 import hudson.model.FreeStyleProject;
 import hudson.model.Label;
 import hudson.model.queue.QueueTaskFuture;
+import hudson.util.OneShotEvent;
 import jenkins.model.Jenkins;
 import jenkins.util.Timer;
 import org.hamcrest.Description;
@@ -35,12 +36,16 @@ import org.jvnet.hudson.test.LoggerRule;
 import org.jvnet.hudson.test.TestBuilder;
 import org.jvnet.hudson.test.recipes.WithTimeout;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.LogRecord;
@@ -51,8 +56,12 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.emptyIterable;
 import static org.hamcrest.Matchers.equalTo;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -143,12 +152,12 @@ public class ReservationVerifierTest {
 
         // Executor will report no node usage
         Api api = mock(Api.class);
-        when(api.reportUsage(Mockito.any(ExecutorJenkins.class))).thenReturn(new ReportUsageResponse(
+        when(api.reportUsageAsync(Mockito.any(ExecutorJenkins.class))).thenReturn(CompletableFuture.completedFuture(new ReportUsageResponse(
                 new ExecutorEntity.Fingerprint(pool.getConfigRepoUrl(), "7", executor.getUrl().toExternalForm()),
                 Collections.<String>emptyList()
-        ));
+        )));
 
-        ReservationVerifier.verify(pool.getConfig(), api);
+        ReservationVerifier.verify(pool.getConfig(), api).get();
         Thread.sleep(1000);
 
         assertThat(l, notLogged(Level.WARNING, ".*"));
@@ -171,7 +180,7 @@ public class ReservationVerifierTest {
         bb.start.block();
 
         assertNull(shareableNode.getComputer().getReservation());
-        ReservationVerifier.getInstance().doRun();
+        ReservationVerifier.getInstance().trigger().get();
         Thread.sleep(5000);
         assertNotNull(ShareableComputer.getAllReservations().toString(), shareableNode.getComputer().getReservation());
 
@@ -203,9 +212,9 @@ public class ReservationVerifierTest {
 
         Api api = mock(Api.class);
         ExecutorEntity.Fingerprint Afingerprint = new ExecutorEntity.Fingerprint("git://config.com/repo.git", "4.2", A.getUrl().toExternalForm());
-        when(api.reportUsage(eq(A))).thenReturn(new ReportUsageResponse(Afingerprint, Collections.singletonList(b.getNodeName())));
+        when(api.reportUsageAsync(eq(A))).thenReturn(CompletableFuture.completedFuture(new ReportUsageResponse(Afingerprint, Collections.singletonList(b.getNodeName()))));
         ExecutorEntity.Fingerprint Bfingerprint = new ExecutorEntity.Fingerprint("git://config.com/repo.git", "4.2", B.getUrl().toExternalForm());
-        when(api.reportUsage(eq(B))).thenReturn(new ReportUsageResponse(Bfingerprint, Collections.singletonList(a.getNodeName())));
+        when(api.reportUsageAsync(eq(B))).thenReturn(CompletableFuture.completedFuture(new ReportUsageResponse(Bfingerprint, Collections.singletonList(a.getNodeName()))));
 
         j.startDanglingReservation(A, a);
         j.startDanglingReservation(B, b);
@@ -215,7 +224,7 @@ public class ReservationVerifierTest {
         assertEquals(B, actual.get(b.toComputer()).getParent().getOwner());
 
         // When
-        ReservationVerifier.verify(config, api);
+        ReservationVerifier.verify(config, api).get();
         Thread.sleep(3000);
 
         // Then
@@ -239,6 +248,105 @@ public class ReservationVerifierTest {
         j.waitUntilNoActivity();
     }
 
+    @Test
+    public void doNotFailHealthyExecutorsBecauseOfHangingOne() throws Exception {
+        Map<String, String> jenkinses = new HashMap<>();
+        jenkinses.put("hanging", "https://hanging.com/");
+        jenkinses.put("hanging1", "https://hanging1.com/");
+        jenkinses.put("hanging2", "https://hanging2.com/");
+        for (int i = 0; i < 12; i++) {
+            jenkinses.put("healthy" + i, "https://healthy" + i + ".com/");
+        }
+        TestUtils.declareExecutors(gitClient, jenkinses);
+        ConfigRepo.Snapshot config = cloud.getLatestConfig();
+        ExecutorJenkins hanging = config.getJenkinsByName("hanging");
+        ExecutorJenkins healthy = config.getJenkinsByName("healthy11");
+
+        Iterator<ShareableNode> nodes = ShareableNode.getAll().values().iterator();
+        ShareableNode hangingNode = nodes.next();
+        ShareableNode healthyNode = nodes.next();
+        j.startDanglingReservation(hanging, hangingNode);
+        j.startDanglingReservation(healthy, healthyNode);
+
+        // Healthy executors report no node usage, one never responds
+        Api api = mock(Api.class);
+        when(api.reportUsageAsync(Mockito.any(ExecutorJenkins.class))).thenAnswer(new Answer<CompletableFuture<ReportUsageResponse>>() {
+            @Override public CompletableFuture<ReportUsageResponse> answer(InvocationOnMock invocation) throws Throwable {
+                ExecutorJenkins executor = (ExecutorJenkins) invocation.getArguments()[0];
+                CompletableFuture<ReportUsageResponse> response = new CompletableFuture<>();
+                Timer.get().schedule(() -> response.complete(new ReportUsageResponse(
+                        new ExecutorEntity.Fingerprint(pool.getConfigRepoUrl(), "7", executor.getUrl().toExternalForm()),
+                        Collections.<String>emptyList()
+                )), 500, TimeUnit.MILLISECONDS);
+                return response;
+            }
+        });
+        when(api.reportUsageAsync(eq(hanging))).thenReturn(new CompletableFuture<ReportUsageResponse>());
+        when(api.reportUsageAsync(eq(config.getJenkinsByName("hanging1")))).thenReturn(new CompletableFuture<ReportUsageResponse>());
+        when(api.reportUsageAsync(eq(config.getJenkinsByName("hanging2")))).thenReturn(new CompletableFuture<ReportUsageResponse>());
+
+        long timeout = ReservationVerifier.QUERY_TIMEOUT;
+        ReservationVerifier.QUERY_TIMEOUT = 2000;
+        long start = System.currentTimeMillis();
+        try {
+            ReservationVerifier.verify(config, api).get();
+        } finally {
+            ReservationVerifier.QUERY_TIMEOUT = timeout;
+        }
+        // Two samples waiting for the hanging executors together, not one after another
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue("Verification took " + elapsed + "ms", elapsed < RestEndpoint.TIMEOUT * 2 + 2 * 2000 + 3000);
+        Thread.sleep(1000);
+
+        // Healthy executor was balanced, the hanging one was left alone
+        assertThat(l, logged(Level.SEVERE, "Jenkins master '" + hanging + "' didn't respond in 2000ms"));
+        assertThat(l, notLogged(Level.SEVERE, "Jenkins master '" + healthy + "'.*"));
+        assertThat(l, logged(Level.INFO, "Canceling dangling Reservation of " + healthyNode.getNodeName() + " by healthy11 .*"));
+        assertNull(healthyNode.getComputer().getReservation());
+        assertNotNull(hangingNode.getComputer().getReservation());
+
+        // Cleanup
+        for (ReservationTask.ReservationExecutable ar : j.getActiveReservations()) {
+            ar.complete();
+        }
+        j.waitUntilNoActivity();
+    }
+
+    @Test
+    public void mergeConcurrentVerifications() throws Exception {
+        ReservationVerifier.getInstance().trigger().get(); // Let the one caused by the pool setup finish
+
+        final OneShotEvent querying = new OneShotEvent();
+        final OneShotEvent proceed = new OneShotEvent();
+        Api api = mock(Api.class);
+        when(api.reportUsageAsync(Mockito.any(ExecutorJenkins.class))).thenAnswer(new Answer<CompletableFuture<ReportUsageResponse>>() {
+            @Override public CompletableFuture<ReportUsageResponse> answer(InvocationOnMock invocation) throws Throwable {
+                querying.signal();
+                proceed.block();
+                ExecutorJenkins executor = (ExecutorJenkins) invocation.getArguments()[0];
+                return CompletableFuture.completedFuture(new ReportUsageResponse(
+                        new ExecutorEntity.Fingerprint(pool.getConfigRepoUrl(), "7", executor.getUrl().toExternalForm()),
+                        Collections.<String>emptyList()
+                ));
+            }
+        });
+
+        Future<?> running = ReservationVerifier.verify(pool.getConfig(), api);
+        querying.block();
+
+        Future<?> merged = ReservationVerifier.verify(pool.getConfig(), api);
+        assertNotSame(running, merged);
+        assertSame(merged, ReservationVerifier.verify(pool.getConfig(), api));
+        assertSame(merged, ReservationVerifier.getInstance().trigger());
+        assertFalse(running.isDone());
+
+        proceed.signal();
+        running.get();
+        merged.get();
+
+        assertThat(l, notLogged(Level.WARNING, ".*"));
+    }
+
     public static TypeSafeDiagnosingMatcher<LoggerRule> logged(final Level level, final String pattern) {
         return new HasLogged(level, pattern, true);
     }
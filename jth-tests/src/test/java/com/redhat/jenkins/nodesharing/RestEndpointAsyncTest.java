@@ -0,0 +1,143 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.redhat.jenkins.nodesharing;
+
+import com.redhat.jenkins.nodesharing.transport.ReportWorkloadResponse;
+import com.redhat.jenkins.nodesharing.utils.NodeSharingJenkinsRule;
+import hudson.model.RootAction;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.TestExtension;
+import org.kohsuke.stapler.StaplerResponse;
+import org.kohsuke.stapler.interceptor.RequirePOST;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Verify failures of asynchronous requests are reported the same way as of the blocking ones.
+ */
+public class RestEndpointAsyncTest {
+
+    private static final ReportWorkloadResponse ENTITY = new ReportWorkloadResponse("configRepo", "4.2", "cafebabe");
+
+    @Rule
+    public NodeSharingJenkinsRule j = new NodeSharingJenkinsRule();
+
+    private RestEndpoint rest;
+
+    @Before
+    public void setUp() throws Exception {
+        rest = new RestEndpoint(j.getURL().toExternalForm(), "async-test", j.getRestCredential());
+    }
+
+    @Test
+    public void readResponse() throws Exception {
+        ReportWorkloadResponse response = execute(rest, "echo").get();
+        assertEquals("cafebabe", response.getConfigRepoRevision());
+    }
+
+    @Test
+    public void mapStatusCode() throws Exception {
+        ActionFailed ex = failure(execute(rest, "fail"));
+        assertThat(ex, instanceOf(ActionFailed.RequestFailed.class));
+        assertEquals(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, ((ActionFailed.RequestFailed) ex).getStatusCode());
+        assertThat(ex.getMessage(), containsString("Out of nodes"));
+    }
+
+    @Test
+    public void mapMalformedResponse() throws Exception {
+        assertThat(failure(execute(rest, "garbage")), instanceOf(ActionFailed.ProtocolMismatch.class));
+    }
+
+    @Test
+    public void mapConnectionFailure() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        RestEndpoint unreachable = new RestEndpoint("http://localhost:" + port + "/", "async-test", j.getRestCredential());
+
+        ActionFailed ex = failure(execute(unreachable, "echo"));
+        assertThat(ex, instanceOf(ActionFailed.CommunicationError.class));
+        assertThat(ex, not(instanceOf(ActionFailed.RequestFailed.class)));
+    }
+
+    private static CompletableFuture<ReportWorkloadResponse> execute(RestEndpoint rest, String path) {
+        return rest.executeRequestAsync(rest.post(path), ENTITY, ReportWorkloadResponse.class);
+    }
+
+    private static ActionFailed failure(CompletableFuture<?> future) throws InterruptedException {
+        try {
+            future.get();
+            fail();
+            throw new AssertionError();
+        } catch (ExecutionException ex) {
+            assertThat(ex.getCause(), instanceOf(ActionFailed.class));
+            return (ActionFailed) ex.getCause();
+        }
+    }
+
+    @TestExtension
+    public static final class Endpoint implements RootAction {
+        @Override public String getIconFileName() {
+            return null;
+        }
+
+        @Override public String getDisplayName() {
+            return null;
+        }
+
+        @Override public String getUrlName() {
+            return "async-test";
+        }
+
+        @RequirePOST
+        public void doEcho(StaplerResponse rsp) throws IOException {
+            ENTITY.toOutputStream(rsp.getOutputStream());
+        }
+
+        @RequirePOST
+        public void doFail(StaplerResponse rsp) throws IOException {
+            rsp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            rsp.getWriter().println("Out of nodes");
+        }
+
+        @RequirePOST
+        public void doGarbage(StaplerResponse rsp) throws IOException {
+            rsp.getWriter().println("<html>Not an entity</html>");
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.redhat.jenkins.nodesharing;
+
+import com.cloudbees.plugins.credentials.CredentialsScope;
+import com.cloudbees.plugins.credentials.impl.UsernamePasswordCredentialsImpl;
+import com.redhat.jenkins.nodesharing.transport.ReportWorkloadResponse;
+import com.redhat.jenkins.nodesharing.utils.NodeSharingJenkinsRule;
+import hudson.model.RootAction;
+import hudson.security.csrf.CrumbIssuer;
+import hudson.security.csrf.CrumbIssuerDescriptor;
+import jenkins.model.Jenkins;
+import org.apache.http.client.methods.HttpPost;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.TestExtension;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.HttpResponses;
+import org.kohsuke.stapler.StaplerResponse;
+import org.kohsuke.stapler.interceptor.RequirePOST;
+
+import javax.servlet.ServletRequest;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Verify crumbs are reused and refreshed only when rejected.
+ */
+public class RestEndpointCrumbTest {
+
+    private static final String USER = "crumbUser";
+
+    @Rule
+    public NodeSharingJenkinsRule j = new NodeSharingJenkinsRule();
+
+    private RotatingCrumbIssuer issuer;
+    private Endpoint endpoint;
+    private RestEndpoint rest;
+
+    @Before
+    public void setUp() throws Exception {
+        issuer = new RotatingCrumbIssuer();
+        j.jenkins.setCrumbIssuer(issuer);
+        j.getMockAuthorizationStrategy().grant(Jenkins.READ).everywhere().to(USER);
+        endpoint = j.jenkins.getExtensionList(RootAction.class).get(Endpoint.class);
+        rest = new RestEndpoint(j.getURL().toExternalForm(), "crumb-test", new UsernamePasswordCredentialsImpl(
+                CredentialsScope.GLOBAL, "crumb-test", "", USER, USER
+        ));
+    }
+
+    @Test
+    public void reuseCrumb() throws Exception {
+        ping();
+        ping();
+        ping();
+        assertEquals(3, endpoint.pings.get());
+        assertEquals(1, issuer.issued.get());
+    }
+
+    @Test
+    public void refreshExpiredCrumb() throws Exception {
+        rest = new RestEndpoint(j.getURL().toExternalForm(), "crumb-test", new UsernamePasswordCredentialsImpl(
+                CredentialsScope.GLOBAL, "crumb-test", "", USER, USER
+        ), 0);
+        ping();
+        ping();
+        assertEquals(2, endpoint.pings.get());
+        assertEquals(2, issuer.issued.get());
+    }
+
+    @Test
+    public void refreshRejectedCrumbAndRetry() throws Exception {
+        ping();
+        issuer.rotate();
+        ping();
+        assertEquals(2, endpoint.pings.get());
+        assertEquals(2, issuer.issued.get());
+
+        ping();
+        assertEquals(2, issuer.issued.get());
+    }
+
+    @Test
+    public void doNotRetryWhenForbiddenForOtherReason() throws Exception {
+        ping();
+        HttpPost method = rest.post("reserve");
+        try {
+            rest.executeRequest(method, new RestEndpoint.AbstractResponseHandler<Void>(method) {});
+            fail();
+        } catch (ActionFailed.RequestFailed ex) {
+            assertEquals(403, ex.getStatusCode());
+        }
+        assertEquals(1, endpoint.reservations.get());
+        assertEquals(1, issuer.issued.get());
+    }
+
+    @Test
+    public void refreshRejectedCrumbAndRetryAsync() throws Exception {
+        report().get();
+        issuer.rotate();
+        ReportWorkloadResponse response = report().get();
+        assertEquals("cafebabe", response.getConfigRepoRevision());
+        assertEquals(2, endpoint.reports.get());
+        assertEquals(2, issuer.issued.get());
+
+        report().get();
+        assertEquals(2, issuer.issued.get());
+    }
+
+    @Test
+    public void doNotRetryAsyncWhenForbiddenForOtherReason() throws Exception {
+        ping();
+        CompletableFuture<ReportWorkloadResponse> future = rest.executeRequestAsync(
+                rest.post("reserve"), new ReportWorkloadResponse("configRepo", "4.2"), ReportWorkloadResponse.class
+        );
+        try {
+            future.get();
+            fail();
+        } catch (ExecutionException ex) {
+            assertThat(ex.getCause(), instanceOf(ActionFailed.RequestFailed.class));
+            assertEquals(403, ((ActionFailed.RequestFailed) ex.getCause()).getStatusCode());
+        }
+        assertEquals(1, endpoint.reservations.get());
+        assertEquals(1, issuer.issued.get());
+    }
+
+    private CompletableFuture<ReportWorkloadResponse> report() {
+        return rest.executeRequestAsync(
+                rest.post("report"), new ReportWorkloadResponse("configRepo", "4.2"), ReportWorkloadResponse.class
+        );
+    }
+
+    private void ping() {
+        HttpPost method = rest.post("ping");
+        rest.executeRequest(method, new RestEndpoint.AbstractResponseHandler<Void>(method) {});
+    }
+
+    @TestExtension
+    public static final class Endpoint implements RootAction {
+        private final AtomicInteger pings = new AtomicInteger();
+        private final AtomicInteger reservations = new AtomicInteger();
+        private final AtomicInteger reports = new AtomicInteger();
+
+        @Override public String getIconFileName() {
+            return null;
+        }
+
+        @Override public String getDisplayName() {
+            return null;
+        }
+
+        @Override public String getUrlName() {
+            return "crumb-test";
+        }
+
+        @RequirePOST
+        public HttpResponse doPing() {
+            pings.incrementAndGet();
+            return HttpResponses.ok();
+        }
+
+        @RequirePOST
+        public void doReport(StaplerResponse rsp) throws IOException {
+            reports.incrementAndGet();
+            new ReportWorkloadResponse("configRepo", "4.2", "cafebabe").toOutputStream(rsp.getOutputStream());
+        }
+
+        @RequirePOST
+        public HttpResponse doReserve() {
+            reservations.incrementAndGet();
+            Jenkins.getActiveInstance().checkPermission(RestEndpoint.RESERVE);
+            return HttpResponses.ok();
+        }
+    }
+
+    /**
+     * Crumb issuer invalidating all crumbs on demand, the way session expiration or restart does.
+     */
+    public static final class RotatingCrumbIssuer extends CrumbIssuer {
+        private final AtomicInteger issued = new AtomicInteger();
+        // Unique so crumbs cached by previous tests are not accepted
+        private volatile String current = UUID.randomUUID().toString();
+
+        private void rotate() {
+            current = UUID.randomUUID().toString();
+        }
+
+        @Override
+        protected String issueCrumb(ServletRequest request, String salt) {
+            if (USER.equals(Jenkins.getAuthentication().getName())) {
+                issued.incrementAndGet();
+            }
+            return current;
+        }
+
+        @Override
+        public boolean validateCrumb(ServletRequest request, String salt, String crumb) {
+            return current.equals(crumb);
+        }
+
+        @TestExtension
+        public static final class DescriptorImpl extends CrumbIssuerDescriptor<RotatingCrumbIssuer> {
+            public DescriptorImpl() {
+                super("", "Jenkins-Crumb");
+            }
+        }
+    }
+}
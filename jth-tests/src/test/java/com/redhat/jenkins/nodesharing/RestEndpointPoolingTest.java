@@ -0,0 +1,104 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.redhat.jenkins.nodesharing;
+
+import com.redhat.jenkins.nodesharing.utils.NodeSharingJenkinsRule;
+import hudson.model.RootAction;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.pool.PoolStats;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.TestExtension;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.HttpResponses;
+import org.kohsuke.stapler.interceptor.RequirePOST;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Verify connections to other Jenkins are pooled.
+ */
+public class RestEndpointPoolingTest {
+
+    @Rule
+    public NodeSharingJenkinsRule j = new NodeSharingJenkinsRule();
+
+    private RestEndpoint rest;
+
+    @Before
+    public void setUp() throws Exception {
+        rest = new RestEndpoint(j.getURL().toExternalForm(), "pooling-test", j.getRestCredential());
+    }
+
+    @Test
+    public void reuseConnection() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            ping();
+        }
+
+        PoolStats stats = rest.getConnectionStats();
+        assertEquals(0, stats.getLeased());
+        assertEquals(1, stats.getAvailable());
+        assertEquals(1, RestEndpoint.getConnectionPoolStats().getAvailable());
+    }
+
+    @Test
+    public void reestablishClosedPool() throws Exception {
+        ping();
+        assertEquals(1, rest.getConnectionStats().getAvailable());
+
+        RestEndpoint.closeConnectionPool();
+        assertEquals(0, rest.getConnectionStats().getAvailable());
+        assertEquals(0, RestEndpoint.getConnectionPoolStats().getAvailable());
+
+        ping();
+        assertEquals(1, rest.getConnectionStats().getAvailable());
+    }
+
+    private void ping() {
+        HttpPost method = rest.post("ping");
+        rest.executeRequest(method, new RestEndpoint.AbstractResponseHandler<Void>(method) {});
+    }
+
+    @TestExtension
+    public static final class Endpoint implements RootAction {
+        @Override public String getIconFileName() {
+            return null;
+        }
+
+        @Override public String getDisplayName() {
+            return null;
+        }
+
+        @Override public String getUrlName() {
+            return "pooling-test";
+        }
+
+        @RequirePOST
+        public HttpResponse doPing() {
+            return HttpResponses.ok();
+        }
+    }
+}
@@ -32,6 +32,7 @@ import com.redhat.jenkins.nodesharing.utils.BlockingBuilder;
 import com.redhat.jenkins.nodesharing.utils.NodeSharingJenkinsRule;
 import com.redhat.jenkins.nodesharingbackend.Api;
 import com.redhat.jenkins.nodesharingbackend.Pool;
+import com.redhat.jenkins.nodesharingfrontend.ConfigRepoRegistry;
 import com.redhat.jenkins.nodesharingfrontend.SharedNode;
 import com.redhat.jenkins.nodesharingfrontend.SharedNodeCloud;
 import com.redhat.jenkins.nodesharingfrontend.SharedOnceRetentionStrategy;
@@ -39,6 +40,7 @@ import hudson.FilePath;
 import hudson.model.Computer;
 import hudson.model.FreeStyleBuild;
 import hudson.model.FreeStyleProject;
+import hudson.model.Label;
 import hudson.model.labels.LabelAtom;
 import hudson.model.queue.QueueTaskFuture;
 import hudson.plugins.ws_cleanup.DisableDeferredWipeoutNodeProperty;
@@ -48,6 +50,7 @@ import hudson.security.csrf.DefaultCrumbIssuer;
 import hudson.slaves.AbstractCloudComputer;
 import hudson.slaves.OfflineCause;
 import hudson.util.FormValidation;
+import hudson.util.OneShotEvent;
 import org.jenkinsci.plugins.gitclient.GitClient;
 import org.junit.Rule;
 import org.junit.Test;
@@ -58,6 +61,8 @@ import javax.annotation.Nonnull;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -74,7 +79,10 @@ import static org.hamcrest.Matchers.notNullValue;
 import static org.hamcrest.Matchers.startsWith;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -115,6 +123,123 @@ public class SharedNodeCloudTest {
         doTestConnection();
     }
 
+    @Test
+    public void readConfigFromOrchestrator() throws Exception {
+        GitClient cr = j.singleJvmGrid(j.jenkins);
+        SharedNodeCloud cloud = j.addSharedNodeCloud(cr.getWorkTree().getRemote());
+        ConfigRepo.Snapshot initial = cloud.getLatestConfig();
+        assertNotNull(initial);
+
+        // Same revision is not transferred again
+        assertSame(initial, cloud.getApi().fetchConfigBundle(initial));
+
+        FilePath config = cr.getWorkTree().child("config");
+        config.write(config.readToString() + "bundled=true\n", "UTF-8");
+        cr.add("config");
+        cr.commit("Not yet known to orchestrator");
+
+        // Executor does not follow orchestrator that is behind the repo
+        SharedNodeCloud.ConfigRepoUpdater updater = j.jenkins.getExtensionList(SharedNodeCloud.ConfigRepoUpdater.class).get(0);
+        updater.update();
+        ConfigRepo.Snapshot read = cloud.getLatestConfig();
+        assertEquals(cr.revParse("HEAD").name(), read.getSource());
+        assertEquals("true", read.getConfig().get("bundled"));
+
+        config.write(config.readToString() + "rebundled=true\n", "UTF-8");
+        cr.add("config");
+        cr.commit("Known to orchestrator");
+        Pool.Updater.getInstance().update();
+
+        // Taken from orchestrator without reading the repo
+        List<TaskLog> logs = ConfigRepo.getRecentLogs();
+        updater.update();
+        assertEquals(logs, ConfigRepo.getRecentLogs());
+        ConfigRepo.Snapshot bundled = cloud.getLatestConfig();
+        assertEquals(cr.revParse("HEAD").name(), bundled.getSource());
+        assertEquals("true", bundled.getConfig().get("rebundled"));
+        assertEquals(initial.getNodes().keySet(), bundled.getNodes().keySet());
+    }
+
+    @Test
+    public void canProvisionDoesNotWaitForConfig() throws Exception {
+        GitClient cr = j.singleJvmGrid(j.jenkins);
+        final SharedNodeCloud cloud = j.addSharedNodeCloud(cr.getWorkTree().getRemote());
+        final Label label = Label.get("solaris11");
+
+        // Hold the monitor so the config can not be read until released
+        final OneShotEvent holding = new OneShotEvent();
+        final OneShotEvent checked = new OneShotEvent();
+        Future<?> holder = Computer.threadPoolForRemoting.submit(new Callable<Void>() {
+            @Override public Void call() throws Exception {
+                synchronized (cloud) {
+                    holding.signal();
+                    checked.block();
+                }
+                return null;
+            }
+        });
+
+        holding.block();
+        try {
+            assertFalse(cloud.canProvision(label));
+            assertFalse(cloud.isOperational());
+        } finally {
+            checked.signal();
+        }
+        holder.get();
+
+        j.await("Config loaded", 30000, () -> cloud.canProvision(label));
+        assertTrue(cloud.isOperational());
+    }
+
+    @Test
+    public void shareConfigRepoBetweenUsers() throws Exception {
+        GitClient cr = j.singleJvmGrid(j.jenkins);
+        String url = cr.getWorkTree().getRemote();
+        SharedNodeCloud cloud = j.addSharedNodeCloud(url);
+        ConfigRepo.Snapshot snapshot = cloud.getLatestConfig();
+        assertNotNull(snapshot);
+
+        ConfigRepoRegistry.Entry entry;
+        try (ConfigRepoRegistry.Lease lease = ConfigRepoRegistry.acquire(url)) {
+            entry = lease.getEntry();
+            try (ConfigRepoRegistry.Lease other = ConfigRepoRegistry.acquire(url)) {
+                assertSame(entry, other.getEntry());
+            }
+            // Read by the cloud already
+            assertSame(snapshot, entry.getSnapshot());
+        }
+
+        // Kept for the cloud
+        try (ConfigRepoRegistry.Lease lease = ConfigRepoRegistry.acquire(url)) {
+            assertSame(entry, lease.getEntry());
+        }
+
+        j.jenkins.clouds.remove(cloud);
+        try (ConfigRepoRegistry.Lease lease = ConfigRepoRegistry.acquire(url)) {
+            entry = lease.getEntry();
+        }
+        try (ConfigRepoRegistry.Lease lease = ConfigRepoRegistry.acquire(url)) {
+            assertSame("Kept for the grace period", entry, lease.getEntry());
+        }
+
+        long grace = ConfigRepoRegistry.PRUNE_GRACE_MILLIS;
+        ConfigRepoRegistry.PRUNE_GRACE_MILLIS = 0;
+        try {
+            try (ConfigRepoRegistry.Lease lease = ConfigRepoRegistry.acquire(url)) {
+                entry = lease.getEntry();
+                // Unused by any cloud but leased
+                j.jenkins.getExtensionList(SharedNodeCloud.ConfigRepoUpdater.class).get(0).update();
+                assertNotNull(entry.getSnapshot());
+            }
+            try (ConfigRepoRegistry.Lease lease = ConfigRepoRegistry.acquire(url)) {
+                assertNotSame("Dropped once unused", entry, lease.getEntry());
+            }
+        } finally {
+            ConfigRepoRegistry.PRUNE_GRACE_MILLIS = grace;
+        }
+    }
+
     @Test
     public void doTestConnectionInvalidUrl() throws Exception {
         final SharedNodeCloud.DescriptorImpl descr = new SharedNodeCloud.DescriptorImpl();
@@ -177,6 +302,17 @@ public class SharedNodeCloudTest {
         cloud.getApi().reportWorkload(workload); // 200 response enforced
     }
 
+    @Test
+    public void doReportWorkloadAsyncTest() throws Exception {
+        final GitClient gitClient = j.singleJvmGrid(j.jenkins);
+        SharedNodeCloud cloud = j.addSharedNodeCloud(gitClient.getWorkTree().getRemote());
+
+        List<ReportWorkloadRequest.Workload.WorkloadItem> items = new ArrayList<>();
+        items.add(new ReportWorkloadRequest.Workload.WorkloadItem(1, "test1", "solaris11"));
+        ReportWorkloadRequest.Workload workload = new ReportWorkloadRequest.Workload.WorkloadBuilder(items).build();
+        assertNotNull(cloud.getApi().reportWorkloadAsync(workload).get()); // 200 response enforced
+    }
+
     @Test
     public void configRoundtrip() throws Exception {
         final GitClient gitClient = j.singleJvmGrid(j.jenkins);
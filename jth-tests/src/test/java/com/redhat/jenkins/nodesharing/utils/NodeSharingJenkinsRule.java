@@ -66,6 +66,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 import static java.util.Collections.singletonMap;
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -161,7 +162,7 @@ public class NodeSharingJenkinsRule extends JenkinsRule {
         TestUtils.declareExecutors(git, Collections.singletonMap("jenkins1", jenkins.getRootUrl()));
         TestUtils.makeNodesLaunchable(git);
 
-        Pool.Updater.getInstance().doRun();
+        Pool.Updater.getInstance().update();
         assertThat(printExceptions(Pool.ADMIN_MONITOR.getErrors()).values(), Matchers.emptyIterable());
         return configRepo;
     }
@@ -184,7 +185,7 @@ public class NodeSharingJenkinsRule extends JenkinsRule {
         // Replace the inner Jenkins with one from different URL as removing the file would cause git to remove the empty
         // directory breaking repo validation
         TestUtils.declareExecutors(gitClient, singletonMap("this-one", getURL() + "/defunc"));
-        Pool.Updater.getInstance().doRun();
+        Pool.Updater.getInstance().update();
     }
 
     public UsernamePasswordCredentials getRestCredential() {
@@ -339,6 +340,19 @@ public class NodeSharingJenkinsRule extends JenkinsRule {
         }
     }
 
+    /**
+     * Poll the condition until it holds, failing once the timeout elapses.
+     */
+    public void await(@Nonnull String message, long timeoutMillis, @Nonnull Callable<Boolean> condition) throws Exception {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!Boolean.TRUE.equals(condition.call())) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError(message + " (waited " + timeoutMillis + "ms)");
+            }
+            Thread.sleep(100);
+        }
+    }
+
     /**
      * Trigger workload update now from executor
      */
@@ -55,15 +55,21 @@ public abstract class ActionFailed extends RuntimeException {
     public static class RequestFailed extends CommunicationError {
 
         private final StatusLine statusLine;
+        private final String body;
 
         public RequestFailed(HttpRequestBase method, StatusLine statusLine, String body) {
             super("Executing REST call " + method + " failed with " + statusLine + ":\n" + body);
             this.statusLine = statusLine;
+            this.body = body;
         }
 
         public int getStatusCode() {
             return statusLine.getStatusCode();
         }
+
+        public String getBody() {
+            return body;
+        }
     }
 
     /**
@@ -0,0 +1,86 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.redhat.jenkins.nodesharing;
+
+import hudson.model.Computer;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import jenkins.util.Timer;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Run a task shortly after it was triggered, merging all triggers that arrive before it starts into a single run.
+ *
+ * Triggers arriving while the task is running schedule another run so no change announced is missed.
+ */
+public final class CoalescingTrigger {
+    private static final Logger LOGGER = Logger.getLogger(CoalescingTrigger.class.getName());
+
+    /**
+     * Time to collect triggers for, in milliseconds.
+     */
+    public static final long WINDOW = Long.getLong(CoalescingTrigger.class.getName() + ".WINDOW", 5000);
+
+    private final @Nonnull String name;
+    private final @Nonnull Runnable task;
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+    public CoalescingTrigger(@Nonnull String name, @Nonnull Runnable task) {
+        this.name = name;
+        this.task = task;
+    }
+
+    /**
+     * Request the task to run.
+     *
+     * @return true if new run was scheduled, false if merged with a pending one.
+     */
+    public boolean trigger() {
+        if (!scheduled.compareAndSet(false, true)) return false;
+
+        Timer.get().schedule(new Runnable() {
+            @Override public void run() {
+                // Task is likely to block on IO so it does not belong to timer threads
+                Computer.threadPoolForRemoting.submit(new Runnable() {
+                    @Override public void run() {
+                        // Reset before running so triggers arriving during the run are not lost
+                        scheduled.set(false);
+                        // Same as periodic work the triggers supplement
+                        try (ACLContext ctx = ACL.as(ACL.SYSTEM)) {
+                            task.run();
+                        } catch (Throwable ex) {
+                            LOGGER.log(Level.WARNING, "Triggered " + name + " failed", ex);
+                        }
+                    }
+                });
+            }
+        }, WINDOW, TimeUnit.MILLISECONDS);
+        return true;
+    }
+}
@@ -23,34 +23,81 @@
  */
 package com.redhat.jenkins.nodesharing;
 
-import hudson.EnvVars;
-import hudson.FilePath;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
 import hudson.Util;
+import hudson.model.Label;
+import hudson.model.labels.LabelAtom;
 import hudson.plugins.git.GitException;
+import org.apache.commons.io.input.CloseShieldInputStream;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
-import org.jenkinsci.plugins.gitclient.Git;
-import org.jenkinsci.plugins.gitclient.GitClient;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.transport.FetchResult;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.TrackingRefUpdate;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.Immutable;
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Properties;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.function.Function;
+import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Read Configuration Repository for holding node sharing data.
@@ -59,6 +106,9 @@ import java.util.logging.Logger;
  * from multiple threads.
  */
 public class ConfigRepo {
+    private static final String MASTER = Constants.R_HEADS + "master";
+    private static final String ORIGIN_MASTER = Constants.R_REMOTES + "origin/master";
+
     private final static String KEY_CONFIG_ORCHESTRATOR_URL = "orchestrator.url";
 
     private static final String KEY_JENKINS_URL = "url";
@@ -67,12 +117,41 @@ public class ConfigRepo {
 
     private static final Logger LOGGER = Logger.getLogger(ConfigRepo.class.getName());
 
+    /**
+     * Number of logs of config repo reads that changed or failed to keep in memory.
+     */
+    private static final int RECENT_LOGS_SIZE = Integer.getInteger(ConfigRepo.class.getName() + ".RECENT_LOGS_SIZE", 10);
+
+    @GuardedBy("RECENT_LOGS")
+    private static final Deque<TaskLog> RECENT_LOGS = new ArrayDeque<>();
+
+    /**
+     * Number of threads parsing config repo files, the number of processors by default.
+     */
+    private static final int PARSER_THREADS = Integer.getInteger(
+            ConfigRepo.class.getName() + ".PARSER_THREADS", Runtime.getRuntime().availableProcessors()
+    );
+
+    // Smaller batches are parsed on calling thread as it is not worth the overhead
+    private static final int PARALLEL_THRESHOLD = 32;
+
+    private static final ForkJoinPool PARSER_POOL = new ForkJoinPool(PARSER_THREADS, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+        @Override public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("Config repo parser " + thread.getPoolIndex());
+            // XML parsers are looked up using context class loader
+            thread.setContextClassLoader(ConfigRepo.class.getClassLoader());
+            return thread;
+        }
+    }, null, false);
+
     // Ensure content of repository is no manipulated while being read
     private final @Nonnull Object repoLock = new Object();
 
     private final @Nonnull String url;
     private final @Nonnull File workingDir;
-    private @CheckForNull GitClient client;
+    @GuardedBy("repoLock")
+    private @CheckForNull Repository repository;
 
     @GuardedBy("repoLock")
     private @CheckForNull Snapshot snapshot;
@@ -82,6 +161,23 @@ public class ConfigRepo {
         this.workingDir = workingDir;
     }
 
+    public @Nonnull String getUrl() {
+        return url;
+    }
+
+    /**
+     * Start from previously persisted snapshot so it is not read again unless the repository have changed.
+     *
+     * @see Snapshot#load(File, String)
+     */
+    public void restore(@Nonnull Snapshot snapshot) {
+        synchronized (repoLock) {
+            if (this.snapshot == null) {
+                this.snapshot = snapshot;
+            }
+        }
+    }
+
     /**
      * Get snapshot or remote repo state or the last working.
      *
@@ -91,25 +187,19 @@ public class ConfigRepo {
      * @throws TaskLog.TaskFailed       When there ware problems reading the snapshot.
      */
     public @Nonnull Snapshot getSnapshot() throws InterruptedException, IOException, TaskLog.TaskFailed {
-        Files.createDirectories(workingDir.toPath());
-        TaskLog taskLog = new TaskLog(new File(workingDir.getAbsolutePath() + ".log"));
+        // Logged in memory so polls finding no change cause no disk IO
+        TaskLog taskLog = new TaskLog("Reading " + url);
+        boolean updated = false;
         try {
             synchronized (repoLock) {
                 ObjectId currentHead = null;
                 try {
-                    currentHead = getRemoteHead(taskLog);
+                    currentHead = getRemoteHead();
                 } catch (GitException e) {
                     LOGGER.info("Getting HEAD of config repo from remote location failed");
                     if (snapshot != null) {
-                        LOGGER.fine("Trying to recover from previous locally stored config");
-                        try {
-                            snapshot = readConfig(snapshot.source, taskLog);
-                            LOGGER.info("Recovered from previous locally stored config");
-                        } catch (Exception e1) {
-                            LOGGER.info("Can't recover - previous config cannot be read");
-                            e1.addSuppressed(e);
-                            throw e1;
-                        }
+                        // Snapshot is pinned to a commit and held in memory so there is nothing to re-read
+                        LOGGER.info("Recovered from previous config " + snapshot.source.name());
                         currentHead = snapshot.source;
                     } else {
                         LOGGER.info("Can't recover - previous config doesn't exist");
@@ -119,11 +209,10 @@ public class ConfigRepo {
                 if (snapshot != null && currentHead.equals(snapshot.source)) {
                     LOGGER.fine("No config update in " + url + " after: " + snapshot.source.name());
                 } else {
-                    taskLog.getLogger().printf("Node sharing config changes discovered %s%nPulling %s to %s%n", currentHead.name(), url, workingDir);
+                    updated = true;
+                    taskLog.getLogger().printf("Node sharing config changes discovered %s%nFetching %s to %s%n", currentHead.name(), url, workingDir);
                     fetchChanges(taskLog);
-                    ObjectId checkedOutHead = getClient(taskLog).revParse("HEAD");
-                    assert currentHead.equals(checkedOutHead) : "What was discovered was in fact checked out";
-                    snapshot = readConfig(currentHead, taskLog);
+                    snapshot = readConfig(currentHead, snapshot, taskLog);
                 }
             }
         } catch (IOException|GitException ex) {
@@ -132,91 +221,312 @@ public class ConfigRepo {
             taskLog.close();
         }
 
+        if (updated || taskLog.failed()) {
+            keepLog(taskLog);
+        }
+
         taskLog.throwIfFailed("Unable to read snapshot from " + url);
         assert snapshot != null;
         return snapshot;
     }
 
-    /* package */ @Nonnull ObjectId getRemoteHead(@Nonnull TaskLog taskLog) throws InterruptedException, GitException {
-        return getClient(taskLog).getHeadRev(url, "master");
+    private void keepLog(@Nonnull TaskLog taskLog) {
+        try {
+            taskLog.persist(new File(workingDir.getAbsolutePath() + ".log"));
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Unable to write config repo log for " + url, ex);
+        }
+
+        synchronized (RECENT_LOGS) {
+            RECENT_LOGS.addFirst(taskLog);
+            while (RECENT_LOGS.size() > RECENT_LOGS_SIZE) {
+                RECENT_LOGS.removeLast();
+            }
+        }
     }
 
-    private void fetchChanges(@Nonnull TaskLog taskLog) throws InterruptedException, GitException {
-        synchronized (repoLock) {
-            getClient(taskLog).clone_().url(url).execute();
-            getClient(taskLog).checkout().branch("master").ref("origin/master").execute();
+    /**
+     * Logs of recent config repo reads that found a change or failed, the latest first.
+     */
+    public static @Nonnull List<TaskLog> getRecentLogs() {
+        synchronized (RECENT_LOGS) {
+            return new ArrayList<>(RECENT_LOGS);
         }
     }
 
-    private @Nonnull GitClient getClient(@Nonnull TaskLog taskLog) throws InterruptedException {
-        if (client != null) return client;
+    /**
+     * Get the commit the remote master points to, without fetching anything.
+     */
+    public @Nonnull ObjectId getRemoteHead() throws GitException {
+        Collection<Ref> refs;
         try {
-            return client = Git.with(taskLog, new EnvVars())
-                    .in(workingDir)
-                    .using("git")
-                    .getClient()
-            ;
-        } catch (IOException e) {
-            throw new AssertionError("Creating local git client has failed", e); // $COVERAGE-IGNORE$
+            refs = Git.lsRemoteRepository().setRemote(url).setHeads(true).call();
+        } catch (GitAPIException e) {
+            throw new GitException("Unable to list remote heads of " + url, e);
         }
+        for (Ref ref : refs) {
+            if (MASTER.equals(ref.getName())) return ref.getObjectId();
+        }
+        throw new GitException("No master branch found in " + url);
     }
 
+    private void fetchChanges(@Nonnull TaskLog taskLog) throws IOException, GitException {
+        synchronized (repoLock) {
+            try {
+                FetchResult result = new Git(getRepository()).fetch()
+                        .setRemote(url)
+                        .setRefSpecs(new RefSpec("+" + MASTER + ":" + ORIGIN_MASTER))
+                        .call()
+                ;
+                for (TrackingRefUpdate update : result.getTrackingRefUpdates()) {
+                    taskLog.getLogger().println(update.getLocalName() + ": " + update.getResult());
+                }
+            } catch (GitAPIException e) {
+                throw new GitException("Unable to fetch from " + url, e);
+            }
+        }
+    }
+
+    // Opened once and kept so subsequent fetches are incremental and cheap. Nothing is checked out.
+    private @Nonnull Repository getRepository() throws IOException {
+        synchronized (repoLock) {
+            if (repository != null) return repository;
+
+            Repository repo = new FileRepositoryBuilder().setGitDir(new File(workingDir, Constants.DOT_GIT)).setBare().build();
+            if (!repo.getObjectDatabase().exists()) {
+                repo.create(true);
+            }
+            return repository = repo;
+        }
+    }
+
+    /**
+     * Release the local repository.
+     *
+     * The instance remains usable, the repository is reopened by the next read.
+     */
+    public void close() {
+        synchronized (repoLock) {
+            if (repository != null) {
+                repository.close();
+                repository = null;
+            }
+        }
+    }
+
+    /**
+     * Read snapshot of the config repo.
+     *
+     * The content is read from the object database so the snapshot corresponds to the commit no matter what happens
+     * to the local repository meanwhile.
+     *
+     * @param head Commit to read.
+     * @param previous Snapshot to carry the unchanged entries over from, null to read everything.
+     */
     private @Nonnull Snapshot readConfig(
-            @Nonnull ObjectId head, @Nonnull TaskLog taskLog
-    ) throws IOException, InterruptedException, TaskLog.TaskFailed {
+            @Nonnull ObjectId head, @CheckForNull Snapshot previous, @Nonnull TaskLog taskLog
+    ) throws IOException, TaskLog.TaskFailed {
         synchronized (repoLock) {
-            HashMap<String, String> config = null;
+            Map<String, String> config = null;
             Set<ExecutorJenkins> jenkinses = null;
             Map<String, NodeDefinition> hosts = null;
 
-            String orchestratorUrl;
-            FilePath configFile = new FilePath(workingDir).child("config");
-            if (!configFile.exists()) {
-                taskLog.error("No file named 'config' found in Config Repository");
-            } else {
-                config = getProperties(configFile);
-                orchestratorUrl = config.get(KEY_CONFIG_ORCHESTRATOR_URL);
-                if (orchestratorUrl == null) {
-                    taskLog.error("No " + KEY_CONFIG_ORCHESTRATOR_URL + " specified by Config Repository");
+            ChangedPaths changed = new ChangedPaths(previous == null ? null : getChangedPaths(previous.source, head));
+            if (previous != null && changed.paths == null) {
+                taskLog.getLogger().println("Unable to diff against previous snapshot, reading the whole config");
+                previous = null;
+            }
+
+            ObjectReader reader = getRepository().newObjectReader();
+            RevWalk revWalk = new RevWalk(reader);
+            try {
+                RevTree tree = revWalk.parseCommit(head).getTree();
+
+                String orchestratorUrl;
+                TreeWalk configFile = TreeWalk.forPath(reader, "config", tree);
+                if (configFile == null || configFile.getFileMode(0).getObjectType() != Constants.OBJ_BLOB) {
+                    taskLog.error("No file named 'config' found in Config Repository");
+                } else if (previous != null && !changed.contains("config")) {
+                    config = previous.config;
                 } else {
-                    if(!orchestratorUrl.endsWith("/")) orchestratorUrl += "/";
-                    try {
-                        URL url = new URL(orchestratorUrl);
-                        if (!isSafeUrl(url, config)) {
-                            taskLog.error("Orchestrator is using %s protocol, https required", url.getProtocol());
+                    config = getProperties(reader, configFile.getObjectId(0));
+                    orchestratorUrl = config.get(KEY_CONFIG_ORCHESTRATOR_URL);
+                    if (orchestratorUrl == null) {
+                        taskLog.error("No " + KEY_CONFIG_ORCHESTRATOR_URL + " specified by Config Repository");
+                    } else {
+                        if(!orchestratorUrl.endsWith("/")) orchestratorUrl += "/";
+                        try {
+                            URL url = new URL(orchestratorUrl);
+                            if (!isSafeUrl(url, config)) {
+                                taskLog.error("Orchestrator is using %s protocol, https required", url.getProtocol());
+                            }
+                        } catch (MalformedURLException e) {
+                            taskLog.error(e, "%s is not valid orchestrator url", orchestratorUrl);
                         }
-                    } catch (MalformedURLException e) {
-                        taskLog.error(e, "%s is not valid orchestrator url", orchestratorUrl);
                     }
                 }
-            }
+                if (configFile != null) {
+                    configFile.release();
+                }
 
-            FilePath jenkinsesDir = new FilePath(workingDir).child("jenkinses");
-            if (!jenkinsesDir.isDirectory()) {
-                taskLog.error("No directory named 'jenkinses' found in Config Repository");
-            } else {
-                jenkinses = getJenkinses(jenkinsesDir, taskLog);
-            }
+                List<TreeEntry> jenkinsesDir = listDirectory(reader, tree, "jenkinses");
+                if (jenkinsesDir == null) {
+                    taskLog.error("No directory named 'jenkinses' found in Config Repository");
+                } else {
+                    jenkinses = getJenkinses(reader, jenkinsesDir, previous, changed, taskLog);
+                }
 
-            FilePath nodesDir = new FilePath(workingDir).child("nodes");
-            if (!jenkinsesDir.exists()) {
-                taskLog.error("No directory named 'nodes' found in Config Repository");
-            } else {
-                hosts = readNodes(nodesDir, taskLog);
+                List<TreeEntry> nodesDir = listDirectory(reader, tree, "nodes");
+                if (nodesDir == null) {
+                    taskLog.error("No directory named 'nodes' found in Config Repository");
+                } else {
+                    hosts = readNodes(reader, nodesDir, previous, changed, taskLog);
+                }
+            } finally {
+                revWalk.release();
+                reader.release();
             }
 
             taskLog.throwIfFailed("Unable to read config repository");
             if (config == null || jenkinses == null || hosts == null) throw new AssertionError();
-            return new Snapshot(head, config, jenkinses, hosts);
+            return new Snapshot(head, config, jenkinses, hosts, previous);
+        }
+    }
+
+    /**
+     * List entries of a directory in the tree.
+     *
+     * @return The entries or null if there is no such directory.
+     */
+    private static @CheckForNull List<TreeEntry> listDirectory(
+            @Nonnull ObjectReader reader, @Nonnull RevTree root, @Nonnull String path
+    ) throws IOException {
+        TreeWalk dir = TreeWalk.forPath(reader, path, root);
+        if (dir == null) return null;
+
+        TreeWalk walk = new TreeWalk(reader);
+        try {
+            if (dir.getFileMode(0).getObjectType() != Constants.OBJ_TREE) return null;
+
+            walk.addTree(dir.getObjectId(0));
+            List<TreeEntry> entries = new ArrayList<>();
+            while (walk.next()) {
+                entries.add(new TreeEntry(
+                        walk.getNameString(),
+                        walk.getObjectId(0),
+                        walk.getFileMode(0).getObjectType() == Constants.OBJ_TREE
+                ));
+            }
+            return entries;
+        } finally {
+            walk.release();
+            dir.release();
         }
     }
 
-    private @Nonnull Set<ExecutorJenkins> getJenkinses(FilePath jenkinsesDir, TaskLog taskLog) throws IOException, InterruptedException {
+    private static final class TreeEntry {
+        private final @Nonnull String name;
+        private final @Nonnull ObjectId id;
+        private final boolean directory;
+
+        private TreeEntry(@Nonnull String name, @Nonnull ObjectId id, boolean directory) {
+            this.name = name;
+            this.id = id;
+            this.directory = directory;
+        }
+
+        private @Nonnull String getBaseName() {
+            int dot = name.lastIndexOf('.');
+            return dot < 0 ? name : name.substring(0, dot);
+        }
+
+        private @Nonnull byte[] read(@Nonnull ObjectReader reader) throws IOException {
+            return reader.open(id, Constants.OBJ_BLOB).getBytes();
+        }
+    }
+
+    /**
+     * Get paths that differ between the two commits.
+     *
+     * @return Changed paths or null if the commits can not be compared.
+     */
+    private @CheckForNull Set<String> getChangedPaths(@Nonnull ObjectId from, @Nonnull ObjectId to) throws IOException {
+        Repository repository = getRepository();
+        RevWalk revWalk = new RevWalk(repository);
+        TreeWalk treeWalk = new TreeWalk(repository);
+        try {
+            treeWalk.addTree(revWalk.parseCommit(from).getTree());
+            treeWalk.addTree(revWalk.parseCommit(to).getTree());
+            treeWalk.setRecursive(true);
+            treeWalk.setFilter(TreeFilter.ANY_DIFF);
+
+            Set<String> paths = new HashSet<>();
+            while (treeWalk.next()) {
+                paths.add(treeWalk.getPathString());
+            }
+            return paths;
+        } catch (MissingObjectException|IncorrectObjectTypeException ex) {
+            return null; // Previous commit not available locally
+        } finally {
+            treeWalk.release();
+            revWalk.release();
+        }
+    }
+
+    private static final class ChangedPaths {
+        // Null when everything is considered changed
+        private final @CheckForNull Set<String> paths;
+
+        private ChangedPaths(@CheckForNull Set<String> paths) {
+            this.paths = paths;
+        }
+
+        private boolean contains(@Nonnull String path) {
+            return paths == null || paths.contains(path);
+        }
+    }
+
+    private @Nonnull Set<ExecutorJenkins> getJenkinses(
+            ObjectReader reader, List<TreeEntry> jenkinsesDir, @CheckForNull Snapshot previous, ChangedPaths changed, TaskLog taskLog
+    ) throws IOException {
+        Map<String, ExecutorJenkins> unchanged = new HashMap<>();
+        if (previous != null) {
+            for (ExecutorJenkins jenkins : previous.jenkinses) {
+                // File name is the name of the executor
+                if (!changed.contains("jenkinses/" + jenkins.getName())) {
+                    unchanged.put(jenkins.getName(), jenkins);
+                }
+            }
+        }
+
+        Map<String, byte[]> changedFiles = new LinkedHashMap<>();
+        for (TreeEntry jenkinsfile: jenkinsesDir) {
+            if (!jenkinsfile.directory && !unchanged.containsKey(jenkinsfile.name)) {
+                changedFiles.put(jenkinsfile.name, jenkinsfile.read(reader));
+            }
+        }
+        Map<String, Parsed<Map<String, String>>> parsed = parseAll(changedFiles, new Parser<Map<String, String>>() {
+            @Override public Map<String, String> parse(@Nonnull String name, @Nonnull byte[] content) throws IOException {
+                return getProperties(new ByteArrayInputStream(content));
+            }
+        });
+
+        // Validated in the order of files so errors are reported the same way no matter how the files were parsed
         HashSet<ExecutorJenkins> jenkinses = new LinkedHashSet<>();
-        for (FilePath jenkinsfile: jenkinsesDir.list()) {
-            HashMap<String, String> config = getProperties(jenkinsfile);
+        for (TreeEntry jenkinsfile: jenkinsesDir) {
+            String name = jenkinsfile.name;
+            ExecutorJenkins carried = unchanged.get(name);
+            if (carried != null) {
+                jenkinses.add(carried);
+                continue;
+            }
+
+            if (jenkinsfile.directory) {
+                taskLog.error("Jenkins config file " + name + " is a directory");
+                continue;
+            }
+            Map<String, String> config = parsed.get(name).get();
 
-            String name = jenkinsfile.getName();
             String url = config.get(KEY_JENKINS_URL);
             String credential_id = config.get(KEY_CREDENTIAL_ID);
 
@@ -247,9 +557,13 @@ public class ConfigRepo {
         return "https".equals(u.getProtocol());
     }
 
-    private @Nonnull HashMap<String, String> getProperties(FilePath configFile) throws IOException, InterruptedException {
+    private @Nonnull Map<String, String> getProperties(ObjectReader reader, ObjectId blob) throws IOException {
+        return getProperties(reader.open(blob, Constants.OBJ_BLOB).openStream());
+    }
+
+    private static @Nonnull Map<String, String> getProperties(InputStream in) throws IOException {
         Properties config = new Properties();
-        try (InputStream is = configFile.read()) {
+        try (InputStream is = in) {
             config.load(is);
         }
 
@@ -267,45 +581,187 @@ public class ConfigRepo {
                 }
             }
         }
-        return c;
+        return Collections.unmodifiableMap(c);
     }
 
-    private @Nonnull Map<String, NodeDefinition> readNodes(FilePath nodesDir, TaskLog taskLog) throws IOException, InterruptedException {
-        Map<String, NodeDefinition> nodes = new HashMap<>();
-        for (FilePath entry : nodesDir.list()) {
-            if (entry.isDirectory()) {
-                taskLog.println("No directories expected in nodes dir " + entry);
+    private @Nonnull Map<String, NodeDefinition> readNodes(
+            ObjectReader reader, List<TreeEntry> nodesDir, @CheckForNull Snapshot previous, ChangedPaths changed, TaskLog taskLog
+    ) throws IOException {
+        // Single file can declare several nodes
+        Map<String, List<NodeDefinition>> unchanged = new HashMap<>();
+        if (previous != null) {
+            for (NodeDefinition definition : previous.nodes.values()) {
+                String fileName = definition.getDeclaringFileName();
+                if (!changed.contains("nodes/" + fileName)) {
+                    List<NodeDefinition> declared = unchanged.get(fileName);
+                    if (declared == null) {
+                        unchanged.put(fileName, declared = new ArrayList<>());
+                    }
+                    declared.add(definition);
+                }
+            }
+        }
+
+        Map<String, byte[]> changedFiles = new LinkedHashMap<>();
+        for (TreeEntry entry : nodesDir) {
+            if (!entry.directory && !unchanged.containsKey(entry.name)) {
+                changedFiles.put(entry.name, entry.read(reader));
+            }
+        }
+        Map<String, Parsed<List<NodeDefinition>>> parsed = parseAll(changedFiles, new Parser<List<NodeDefinition>>() {
+            @Override public List<NodeDefinition> parse(@Nonnull String name, @Nonnull byte[] content) {
+                return NodeDefinition.createAll(name, new String(content, StandardCharsets.UTF_8));
             }
+        });
 
-            NodeDefinition nd = NodeDefinition.create(entry);
-            if (nd == null) {
+        // Collected in the order of files so errors are reported the same way no matter how the files were parsed
+        Map<String, NodeDefinition> nodes = new HashMap<>();
+        for (TreeEntry entry : nodesDir) {
+            List<NodeDefinition> nds = unchanged.get(entry.name);
+            if (entry.directory) {
+                taskLog.println("No directories expected in nodes dir " + entry.name);
+            } else if (nds == null) {
+                nds = parsed.get(entry.name).get();
+            }
+            if (nds == null) {
                 taskLog.error("Unknown node definition in " + entry.getBaseName());
             } else {
-                nodes.put(nd.getName(), nd);
+                for (NodeDefinition nd : nds) {
+                    NodeDefinition declared = nodes.get(nd.getName());
+                    if (declared != null) {
+                        taskLog.error("Node %s declared in %s is already declared in %s", nd.getName(), nd.getDeclaringFileName(), declared.getDeclaringFileName());
+                        continue;
+                    }
+                    nodes.put(nd.getName(), nd);
+                }
             }
         }
-        return nodes;
+        return Collections.unmodifiableMap(nodes);
+    }
+
+    /**
+     * Parse the files, in parallel when there is enough of them.
+     *
+     * The content is read upfront by the caller as {@link ObjectReader} is not thread safe. Failures are kept with
+     * the results so they can be reported in the order of files.
+     *
+     * @param files File names mapped to their content.
+     * @return File names mapped to parse results.
+     */
+    private static @Nonnull <T> Map<String, Parsed<T>> parseAll(
+            @Nonnull Map<String, byte[]> files, @Nonnull final Parser<T> parser
+    ) {
+        final List<Map.Entry<String, byte[]>> entries = new ArrayList<>(files.entrySet());
+        final Function<Map.Entry<String, byte[]>, Parsed<T>> parse = new Function<Map.Entry<String, byte[]>, Parsed<T>>() {
+            @Override public Parsed<T> apply(Map.Entry<String, byte[]> file) {
+                try {
+                    return new Parsed<>(parser.parse(file.getKey(), file.getValue()), null);
+                } catch (IOException|RuntimeException ex) {
+                    return new Parsed<>(null, ex);
+                }
+            }
+        };
+
+        List<Parsed<T>> results;
+        if (entries.size() < PARALLEL_THRESHOLD || PARSER_THREADS < 2) {
+            results = entries.stream().map(parse).collect(Collectors.toList());
+        } else {
+            // Collected in encounter order
+            results = PARSER_POOL.submit(new Callable<List<Parsed<T>>>() {
+                @Override public List<Parsed<T>> call() {
+                    return entries.parallelStream().map(parse).collect(Collectors.toList());
+                }
+            }).join();
+        }
+
+        Map<String, Parsed<T>> parsed = new HashMap<>();
+        for (int i = 0; i < entries.size(); i++) {
+            parsed.put(entries.get(i).getKey(), results.get(i));
+        }
+        return parsed;
+    }
+
+    private interface Parser<T> {
+        @CheckForNull T parse(@Nonnull String name, @Nonnull byte[] content) throws IOException;
+    }
+
+    private static final class Parsed<T> {
+        private final @CheckForNull T value;
+        private final @CheckForNull Exception failure;
+
+        private Parsed(@CheckForNull T value, @CheckForNull Exception failure) {
+            this.value = value;
+            this.failure = failure;
+        }
+
+        // Rethrow the failure as if the file was parsed right here
+        private @CheckForNull T get() throws IOException {
+            if (failure instanceof IOException) throw (IOException) failure;
+            if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+            return value;
+        }
     }
 
     /**
      * Snapshot of the configuration at particular point in time.
+     *
+     * Snapshots are immutable so they can be shared between threads freely.
      */
+    @Immutable
     public static class Snapshot {
         private final @Nonnull ObjectId source;
-        private final @Nonnull HashMap<String, String> config;
+        private final @Nonnull Map<String, String> config;
         private final @Nonnull Set<ExecutorJenkins> jenkinses;
         private final @Nonnull Map<String, NodeDefinition> nodes;
+        private final @Nonnull Set<String> changedJenkinses;
+        private final @Nonnull Set<String> changedNodes;
+        private final @Nonnull Map<String, ExecutorJenkins> jenkinsesByName;
+        private final @Nonnull Map<URI, ExecutorJenkins> jenkinsesByUri;
+        // Built lazily as parsing labels requires running Jenkins
+        private volatile @CheckForNull LabelIndex labelIndex;
+        private final @Nonnull ConcurrentMap<Label, Boolean> provisionable = new ConcurrentHashMap<>();
 
         private Snapshot(
                 @Nonnull ObjectId source,
-                @Nonnull HashMap<String, String> config,
+                @Nonnull Map<String, String> config,
                 @Nonnull Set<ExecutorJenkins> jenkinses,
-                @Nonnull Map<String, NodeDefinition> nodes
+                @Nonnull Map<String, NodeDefinition> nodes,
+                @CheckForNull Snapshot previous
         ) {
             this.source = source;
             this.config = config;
             this.jenkinses = jenkinses;
             this.nodes = nodes;
+
+            Map<String, ExecutorJenkins> jenkinsesByName = new HashMap<>();
+            Map<URI, ExecutorJenkins> jenkinsesByUri = new HashMap<>();
+            for (ExecutorJenkins jenkins : jenkinses) {
+                jenkinsesByName.put(jenkins.getName(), jenkins);
+                jenkinsesByUri.putIfAbsent(jenkins.getUri().normalize(), jenkins);
+            }
+            this.jenkinsesByName = jenkinsesByName;
+            this.jenkinsesByUri = jenkinsesByUri;
+            this.changedJenkinses = diff(
+                    previous == null ? Collections.<String, ExecutorJenkins>emptyMap() : previous.jenkinsesByName,
+                    jenkinsesByName
+            );
+            this.changedNodes = diff(previous == null ? Collections.<String, NodeDefinition>emptyMap() : previous.nodes, nodes);
+        }
+
+        // Entries carried over from previous snapshot are the same instances
+        private static @Nonnull <T> Set<String> diff(@Nonnull Map<String, T> previous, @Nonnull Map<String, T> current) {
+            Set<String> changed = new HashSet<>();
+            for (Map.Entry<String, T> e : current.entrySet()) {
+                if (previous.get(e.getKey()) != e.getValue()) {
+                    changed.add(e.getKey());
+                }
+            }
+            for (String name : previous.keySet()) {
+                if (!current.containsKey(name)) {
+                    changed.add(name);
+                }
+            }
+            return Collections.unmodifiableSet(changed);
         }
 
         public @Nonnull String getSource() {
@@ -316,7 +772,7 @@ public class ConfigRepo {
             return nodes;
         }
 
-        public @Nonnull HashMap<String, String> getConfig() {
+        public @Nonnull Map<String, String> getConfig() {
             return config;
         }
 
@@ -324,36 +780,248 @@ public class ConfigRepo {
             return jenkinses;
         }
 
+        /**
+         * Names of nodes added, modified or removed since the snapshot this one was created from.
+         *
+         * All nodes are reported when there was no previous snapshot.
+         */
+        public @Nonnull Set<String> getChangedNodes() {
+            return changedNodes;
+        }
+
+        /**
+         * Names of executor Jenkinses added, modified or removed since the snapshot this one was created from.
+         *
+         * All executors are reported when there was no previous snapshot.
+         */
+        public @Nonnull Set<String> getChangedJenkinses() {
+            return changedJenkinses;
+        }
+
         public @Nonnull ExecutorJenkins getJenkinsByUrl(@Nonnull String url) throws NoSuchElementException {
             if (url == null) throw new IllegalArgumentException("null url provided");
+            ExecutorJenkins jenkins;
             try {
-                URI uri = new URI(url);
-                for (ExecutorJenkins jenkins : jenkinses) {
-                    if (jenkins.getUrl().toURI().equals(uri)) {
-                        return jenkins;
-                    }
-                }
+                jenkins = jenkinsesByUri.get(new URI(url).normalize());
             } catch (URISyntaxException e) {
                 throw new AssertionError(e);
             }
+            if (jenkins != null) return jenkins;
 
             throw new NoSuchElementException("No Jenkins executor configured for url: " + url);
         }
 
         public @Nonnull ExecutorJenkins getJenkinsByName(@Nonnull String name) throws NoSuchElementException {
-            for (ExecutorJenkins jenkins : jenkinses) {
-                if (jenkins.getName().equals(name)) {
-                    return jenkins;
-                }
-            }
+            ExecutorJenkins jenkins = jenkinsesByName.get(name);
+            if (jenkins != null) return jenkins;
 
             throw new NoSuchElementException("No Jenkins executor configured for name: " + name);
         }
 
+        /**
+         * Nodes declaring given label atom.
+         */
+        public @Nonnull List<NodeDefinition> getNodes(@Nonnull LabelAtom atom) {
+            List<NodeDefinition> nodes = getLabelIndex().nodesByAtom.get(atom);
+            return nodes == null ? Collections.<NodeDefinition>emptyList() : nodes;
+        }
+
+        /**
+         * Determine whether there is a node in the snapshot satisfying the label.
+         *
+         * The result is memoized for the lifetime of the snapshot.
+         */
+        public boolean canProvision(@Nonnull Label label) {
+            Boolean can = provisionable.get(label);
+            if (can == null) {
+                can = getLabelIndex().canProvision(label);
+                provisionable.putIfAbsent(label, can);
+            }
+            return can;
+        }
+
+        private @Nonnull LabelIndex getLabelIndex() {
+            LabelIndex index = labelIndex;
+            if (index == null) {
+                // Racing threads compute the same index
+                labelIndex = index = new LabelIndex(nodes.values());
+            }
+            return index;
+        }
+
         public @Nonnull String getOrchestratorUrl() {
             String url = config.get(KEY_CONFIG_ORCHESTRATOR_URL);
             if (url == null) throw new AssertionError(); // Should not be instantiated by ConfigRepo
             return url;
         }
+
+        /**
+         * Persist the snapshot so it can be loaded without reaching the config repository.
+         *
+         * @param file File to write, replaced atomically.
+         * @param url Url of the repository the snapshot was read from.
+         */
+        public void save(@Nonnull File file, @Nonnull String url) throws IOException {
+            Files.createDirectories(file.getParentFile().toPath());
+            File tmp = new File(file.getPath() + ".tmp");
+            try (OutputStream out = new FileOutputStream(tmp)) {
+                writeTo(out, url);
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        /**
+         * Load snapshot persisted by {@link #save(File, String)}.
+         *
+         * @param file File to read.
+         * @param url Url of the repository the snapshot is expected to be read from.
+         * @return The snapshot or null if there is none persisted for given repository.
+         * @throws IOException When the file can not be read.
+         */
+        public static @CheckForNull Snapshot load(@Nonnull File file, @Nonnull String url) throws IOException {
+            if (!file.exists()) return null;
+
+            try (InputStream in = new FileInputStream(file)) {
+                return readFrom(in, url);
+            } catch (IOException ex) {
+                throw new IOException("Corrupted snapshot in " + file, ex);
+            }
+        }
+
+        /**
+         * Write compressed form of the snapshot.
+         *
+         * The content is determined by the source commit and url so it can be cached and addressed by those.
+         *
+         * @param out Stream to write to. It is not closed.
+         * @param url Url of the repository the snapshot was read from.
+         */
+        public void writeTo(@Nonnull OutputStream out, @Nonnull String url) throws IOException {
+            Persisted persisted = new Persisted();
+            persisted.url = url;
+            persisted.source = getSource();
+            // Sorted so equal snapshots produce identical bundles no matter how the collections were populated
+            persisted.config = new TreeMap<>(config);
+            for (ExecutorJenkins jenkins : jenkinses) {
+                persisted.jenkinses.add(new Persisted.Jenkins(jenkins));
+            }
+            Collections.sort(persisted.jenkinses, new Comparator<Persisted.Jenkins>() {
+                @Override public int compare(Persisted.Jenkins o1, Persisted.Jenkins o2) {
+                    return o1.name.compareTo(o2.name);
+                }
+            });
+            for (NodeDefinition node : new TreeMap<>(nodes).values()) {
+                persisted.nodes.add(new Persisted.Node(node));
+            }
+
+            GZIPOutputStream gzip = new GZIPOutputStream(new CloseShieldOutputStream(out));
+            try (Writer writer = new OutputStreamWriter(gzip, StandardCharsets.UTF_8)) {
+                new Gson().toJson(persisted, writer);
+            }
+        }
+
+        /**
+         * Read snapshot written by {@link #writeTo(OutputStream, String)}.
+         *
+         * @param in Stream to read from. It is not closed.
+         * @param url Url of the repository the snapshot is expected to be read from.
+         * @return The snapshot or null if it was written for different repository or format version.
+         * @throws IOException When the content can not be read.
+         */
+        public static @CheckForNull Snapshot readFrom(@Nonnull InputStream in, @Nonnull String url) throws IOException {
+            Persisted persisted;
+            GZIPInputStream gzip = new GZIPInputStream(new CloseShieldInputStream(in));
+            try (Reader reader = new InputStreamReader(gzip, StandardCharsets.UTF_8)) {
+                persisted = new Gson().fromJson(reader, Persisted.class);
+            } catch (JsonParseException ex) {
+                throw new IOException("Corrupted snapshot", ex);
+            }
+            if (persisted == null || persisted.version != Persisted.VERSION || !url.equals(persisted.url)) return null;
+
+            try {
+                Set<ExecutorJenkins> jenkinses = new LinkedHashSet<>();
+                for (Persisted.Jenkins jenkins : persisted.jenkinses) {
+                    jenkinses.add(new ExecutorJenkins(jenkins.url, jenkins.name, jenkins.credentialId));
+                }
+                Map<String, NodeDefinition> nodes = new HashMap<>();
+                for (Persisted.Node node : persisted.nodes) {
+                    NodeDefinition definition = NodeDefinition.create(node.fileName, node.definition);
+                    if (definition == null) throw new IOException("Unknown node definition in " + node.fileName);
+                    nodes.put(definition.getName(), definition);
+                }
+                return new Snapshot(
+                        ObjectId.fromString(persisted.source),
+                        Collections.unmodifiableMap(new HashMap<>(persisted.config)),
+                        Collections.unmodifiableSet(jenkinses),
+                        Collections.unmodifiableMap(nodes),
+                        null
+                );
+            } catch (RuntimeException ex) {
+                throw new IOException("Corrupted snapshot", ex);
+            }
+        }
+
+        private static final class LabelIndex {
+            private final @Nonnull Map<LabelAtom, List<NodeDefinition>> nodesByAtom = new HashMap<>();
+            // Distinct label sets so expressions are evaluated once for nodes labeled the same way
+            private final @Nonnull Set<Set<LabelAtom>> labelSets = new HashSet<>();
+
+            private LabelIndex(@Nonnull Collection<NodeDefinition> nodes) {
+                for (NodeDefinition node : nodes) {
+                    Set<LabelAtom> atoms = new HashSet<>(node.getLabelAtoms());
+                    labelSets.add(atoms);
+                    for (LabelAtom atom : atoms) {
+                        List<NodeDefinition> labeled = nodesByAtom.get(atom);
+                        if (labeled == null) {
+                            nodesByAtom.put(atom, labeled = new ArrayList<>());
+                        }
+                        labeled.add(node);
+                    }
+                }
+            }
+
+            private boolean canProvision(@Nonnull Label label) {
+                if (label instanceof LabelAtom) return nodesByAtom.containsKey(label);
+
+                for (Set<LabelAtom> atoms : labelSets) {
+                    if (label.matches(atoms)) return true;
+                }
+                return false;
+            }
+        }
+
+        // Compact form of the snapshot as written to disk
+        private static final class Persisted {
+            private static final int VERSION = 1;
+
+            private int version = VERSION;
+            private String url;
+            private String source;
+            private Map<String, String> config;
+            private List<Jenkins> jenkinses = new ArrayList<>();
+            private List<Node> nodes = new ArrayList<>();
+
+            private static final class Jenkins {
+                private String name;
+                private String url;
+                private String credentialId;
+
+                private Jenkins(ExecutorJenkins jenkins) {
+                    this.name = jenkins.getName();
+                    this.url = jenkins.getUrl().toExternalForm();
+                    this.credentialId = jenkins.getCredentialId();
+                }
+            }
+
+            private static final class Node {
+                private String fileName;
+                private String definition;
+
+                private Node(NodeDefinition node) {
+                    this.fileName = node.getFileName();
+                    this.definition = node.getDefinition();
+                }
+            }
+        }
     }
 }
@@ -40,6 +40,7 @@ import org.kohsuke.accmod.restrictions.NoExternalUse;
 import javax.annotation.Nonnull;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.logging.Level;
 
 /**
@@ -50,12 +51,21 @@ import java.util.logging.Level;
 public class ConfigRepoAdminMonitor extends AdministrativeMonitor {
 
     private final @Nonnull Map<String, Throwable> errors = new CopyOnWriteMap.Hash<>();
+    private final @Nonnull Map<String, PollingSchedule> polling = new CopyOnWriteMap.Hash<>();
 
     public static ConfigRepoAdminMonitor getInstance() {
         return ExtensionList.lookup(ConfigRepoAdminMonitor.class).get(0);
     }
 
     public ConfigRepoAdminMonitor() {
+        this(ConfigRepoAdminMonitor.class.getName());
+    }
+
+    /**
+     * @param id Distinct id for every instance registered.
+     */
+    public ConfigRepoAdminMonitor(@Nonnull String id) {
+        super(id);
         // Configure UI logger for ease of maintenance
         LogRecorderManager log = Jenkins.getInstance().getLog();
         LogRecorder recorder = log.getLogRecorder("node-sharing");
@@ -82,6 +92,10 @@ public class ConfigRepoAdminMonitor extends AdministrativeMonitor {
         errors.clear();
     }
 
+    public void clear(@Nonnull String context) {
+        errors.remove(context);
+    }
+
     public void report(@Nonnull String context, @Nonnull Throwable ex) {
         errors.put(context, ex);
     }
@@ -90,6 +104,21 @@ public class ConfigRepoAdminMonitor extends AdministrativeMonitor {
         return new HashMap<>(errors);
     }
 
+    /**
+     * Present polling statistics of a config repo.
+     */
+    public void track(@Nonnull String context, @Nonnull PollingSchedule schedule) {
+        polling.put(context, schedule);
+    }
+
+    public void untrack(@Nonnull String context) {
+        polling.remove(context);
+    }
+
+    public @Nonnull Map<String, PollingSchedule> getPolling() {
+        return new TreeMap<>(polling);
+    }
+
     @Initializer(after = InitMilestone.PLUGINS_STARTED)
     @Restricted(NoExternalUse.class)
     public static void checkNodeSharingRole() throws AbortException {
@@ -0,0 +1,68 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.redhat.jenkins.nodesharing;
+
+import hudson.model.ManagementLink;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Node sharing status page, reachable no matter if there are problems reported by {@link ConfigRepoAdminMonitor}.
+ */
+public class ConfigRepoManagementLink extends ManagementLink {
+
+    private final @Nonnull String urlName;
+    private final @Nonnull String displayName;
+    private final @Nonnull ConfigRepoAdminMonitor monitor;
+
+    public ConfigRepoManagementLink(@Nonnull String urlName, @Nonnull String displayName, @Nonnull ConfigRepoAdminMonitor monitor) {
+        this.urlName = urlName;
+        this.displayName = displayName;
+        this.monitor = monitor;
+    }
+
+    @Override
+    public @Nonnull String getIconFileName() {
+        return "notepad.png";
+    }
+
+    @Override
+    public @Nonnull String getUrlName() {
+        return urlName;
+    }
+
+    @Override
+    public @Nonnull String getDisplayName() {
+        return displayName;
+    }
+
+    @Override
+    public @Nonnull String getDescription() {
+        return "Config repo polling, recent updates and problems syncing it";
+    }
+
+    public @Nonnull ConfigRepoAdminMonitor getMonitor() {
+        return monitor;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.redhat.jenkins.nodesharing;
+
+import com.redhat.jenkins.nodesharing.transport.AbstractEntity;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Refresh config snapshot when peer reports a config repo revision different from the local one.
+ *
+ * Commit ids are not ordered so any difference is refreshed for, but each revision only once: the peer might as well
+ * be the one behind, in which case the fetch finds nothing new and repeating it for every message would be wasteful.
+ * Revision is remembered only after the refresh succeeded so a failed one is retried when the revision is seen again.
+ *
+ * The refresh task is expected to call {@link #refreshing()} before it starts and {@link #refreshed(Collection, boolean)}
+ * once done.
+ */
+public final class ConfigRevisionTracker {
+    private static final int REMEMBERED = 64;
+
+    private final @Nonnull CoalescingTrigger refresh;
+
+    // Revisions already refreshed for, recently used last
+    @GuardedBy("this")
+    private final Map<String, Boolean> handled = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+        private static final long serialVersionUID = 0L;
+        @Override protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > REMEMBERED;
+        }
+    };
+
+    // Revisions refresh was triggered for but not completed yet
+    @GuardedBy("this")
+    private final Set<String> pending = new HashSet<>();
+
+    public ConfigRevisionTracker(@Nonnull CoalescingTrigger refresh) {
+        this.refresh = refresh;
+    }
+
+    /**
+     * Inspect the entity received from peer.
+     *
+     * @param current Revision of the local snapshot, null if there is none.
+     * @param entity Entity received.
+     * @return true if the refresh was triggered.
+     */
+    public boolean observe(@CheckForNull String current, @CheckForNull AbstractEntity entity) {
+        if (entity == null) return false;
+        String revision = entity.getConfigRepoRevision();
+        if (revision == null || revision.equals(current)) return false;
+
+        synchronized (this) {
+            if (handled.get(revision) != null || !pending.add(revision)) return false;
+        }
+        refresh.trigger();
+        return true;
+    }
+
+    /**
+     * Revisions the refresh that is about to start is serving.
+     *
+     * Revisions observed after this call are left for the next refresh.
+     */
+    public synchronized @Nonnull Collection<String> refreshing() {
+        return new ArrayList<>(pending);
+    }
+
+    /**
+     * Record the outcome of the refresh.
+     *
+     * @param revisions Revisions returned by {@link #refreshing()} before the refresh started.
+     * @param succeeded true if the snapshot was read, false to have the revisions triggering the refresh again.
+     */
+    public synchronized void refreshed(@Nonnull Collection<String> revisions, boolean succeeded) {
+        pending.removeAll(revisions);
+        if (succeeded) {
+            for (String revision : revisions) {
+                handled.put(revision, Boolean.TRUE);
+            }
+        }
+    }
+}
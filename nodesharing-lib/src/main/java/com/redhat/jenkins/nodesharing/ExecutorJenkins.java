@@ -32,6 +32,7 @@ import org.apache.commons.codec.digest.DigestUtils;
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 import java.net.MalformedURLException;
+import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.Objects;
@@ -44,6 +45,9 @@ public class ExecutorJenkins {
     private final @Nonnull URL url;
     private final @Nonnull String name;
     private final @CheckForNull String credentialId;
+    // Precomputed as instances are used as keys on hot paths
+    private transient final @Nonnull URI uri;
+    private transient final int hash;
     private /*final once initialized*/ @CheckForNull RestEndpoint rest;
 
     public ExecutorJenkins(@Nonnull String url, @Nonnull String name, String credentialId) {
@@ -58,16 +62,22 @@ public class ExecutorJenkins {
         }
         try {
             this.url = new URL(url);
-            this.url.toURI();
+            this.uri = this.url.toURI();
         } catch (MalformedURLException|URISyntaxException e) {
             throw new IllegalArgumentException(e);
         }
         this.credentialId = Util.fixEmptyAndTrim(credentialId);
+        this.hash = Objects.hash(uri, name, this.credentialId);
     }
 
     public ExecutorJenkins(@Nonnull String url, @Nonnull String name) {
         this(url, name, null);
     }
+
+    // Recompute transient fields when deserialized
+    private Object readResolve() {
+        return new ExecutorJenkins(url.toExternalForm(), name, credentialId);
+    }
     // Make safe and readable name from URL
     public static String inferCloudName(String url) {
         // This is awfully long, especially for node names
@@ -87,6 +97,10 @@ public class ExecutorJenkins {
         return credentialId;
     }
 
+    /*package*/ @Nonnull URI getUri() {
+        return uri;
+    }
+
     /**
      * Get URL to executors REST endpoint.
      *
@@ -107,20 +121,12 @@ public class ExecutorJenkins {
         if (o == null || getClass() != o.getClass()) return false;
 
         ExecutorJenkins that = (ExecutorJenkins) o;
-        try {
-            return Objects.equals(name, that.name) && Objects.equals(url.toURI(), that.url.toURI()) && Objects.equals(credentialId, that.credentialId);
-        } catch (URISyntaxException e) {
-            throw new AssertionError(e);
-        }
+        return hash == that.hash && Objects.equals(name, that.name) && Objects.equals(uri, that.uri) && Objects.equals(credentialId, that.credentialId);
     }
 
     @Override
     public int hashCode() {
-        try {
-            return Objects.hash(url.toURI(), name, credentialId);
-        } catch (URISyntaxException e) {
-            throw new AssertionError(e);
-        }
+        return hash;
     }
 
     @Override public String toString() {
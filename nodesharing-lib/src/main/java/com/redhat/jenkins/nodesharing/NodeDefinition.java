@@ -23,18 +23,31 @@
  */
 package com.redhat.jenkins.nodesharing;
 
-import groovy.util.Node;
-import groovy.util.NodeList;
-import groovy.util.XmlParser;
 import hudson.FilePath;
+import hudson.Util;
 import hudson.model.labels.LabelAtom;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 import javax.annotation.concurrent.Immutable;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import java.io.IOException;
 import java.io.Serializable;
+import java.io.StringReader;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Definition of the node in Config Repository.
@@ -46,13 +59,22 @@ public abstract class NodeDefinition implements Serializable {
     private static final long serialVersionUID = -2736787874164916297L;
 
     private final @Nonnull String fileName;
-    private final @Nonnull String definition;
+    // Null for definitions rendering it on demand
+    private final @CheckForNull String definition;
 
     protected NodeDefinition(@Nonnull String fileName, @Nonnull String definition) {
         this.fileName = fileName;
         this.definition = definition;
     }
 
+    /**
+     * For definitions overriding {@link #getDefinition()}.
+     */
+    protected NodeDefinition(@Nonnull String fileName) {
+        this.fileName = fileName;
+        this.definition = null;
+    }
+
     /**
      * @return Name of the node.
      */
@@ -65,17 +87,30 @@ public abstract class NodeDefinition implements Serializable {
 
     /**
      * Name of the file the node was declared in in config repo.
-     * @see #create(String, String)
+     *
+     * Several nodes can share the declaring file.
+     * @see #createAll(String, String)
      */
     public @Nonnull String getDeclaringFileName() {
         return fileName;
     }
 
+    /**
+     * Name of the file declaring just this node.
+     *
+     * It is the declaring file name unless the node was declared together with others.
+     * @see #create(String, String)
+     */
+    public @Nonnull String getFileName() {
+        return fileName;
+    }
+
     /**
      * Textual definition of the node.
      * @see #create(String, String)
      */
     public @Nonnull String getDefinition() {
+        if (definition == null) throw new AssertionError(getClass() + " must override getDefinition()");
         return definition;
     }
 
@@ -91,7 +126,7 @@ public abstract class NodeDefinition implements Serializable {
      * Create definition from file name and the content.
      *
      * Following invariant must hold so we are able to recreate the node on the other side:
-     * <tt>node.equals(NodeDefinition.create(node.getDeclaringFileName(), node.getDefinition()))</tt>
+     * <tt>node.equals(NodeDefinition.create(node.getFileName(), node.getDefinition()))</tt>
      */
     public static @CheckForNull NodeDefinition create(@Nonnull String declaringFileName, @Nonnull String definition) {
         if (declaringFileName.endsWith(".xml")) {
@@ -100,12 +135,35 @@ public abstract class NodeDefinition implements Serializable {
         return null;
     }
 
+    /**
+     * Create all definitions declared in a config repo file.
+     *
+     * @return The definitions or null if the file format is not recognized.
+     * @see Inventory
+     */
+    public static @CheckForNull List<NodeDefinition> createAll(@Nonnull String declaringFileName, @Nonnull String definition) {
+        if (declaringFileName.endsWith(Inventory.SUFFIX)) {
+            return Inventory.parse(declaringFileName, definition).expand();
+        }
+        NodeDefinition node = create(declaringFileName, definition);
+        return node == null ? null : Collections.singletonList(node);
+    }
+
     /**
      * XStream based node definition.
+     *
+     * Only the metadata needed for scheduling are extracted, in a single streaming pass that also verifies the whole
+     * document is well-formed. No object model is built.
      */
     public static final class Xml extends NodeDefinition {
         private static final long serialVersionUID = 6932395574201798664L;
 
+        private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newInstance();
+        static {
+            XML_INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        }
+
         private final @Nonnull String name;
         private final @Nonnull String label;
 
@@ -113,22 +171,55 @@ public abstract class NodeDefinition implements Serializable {
             super(fileName, xml);
             this.name = fileName.replaceAll(".xml$", "");
 
-            Node xmlNode;
+            String label;
             try {
-                xmlNode = new XmlParser().parseText(xml);
-            } catch (Exception e) {
+                label = readLabel(xml);
+            } catch (XMLStreamException e) {
                 throw new IllegalStateException("Cannot parse xml: " + xml, e);
             }
 
-            if (((NodeList) xmlNode.get("label")).isEmpty()) {
+            if (label == null) {
                 throw new IllegalStateException("No labels found in " + xml);
             }
-            label = ((Node) ((NodeList) xmlNode.get("label")).get(0)).text().trim();
-            if (label.isEmpty()) {
+            this.label = label.trim();
+            if (this.label.isEmpty()) {
                 throw new IllegalArgumentException("No labels specified for node " + name);
             }
         }
 
+        /**
+         * Read the text of the first <tt>label</tt> element nested in the root one.
+         *
+         * The rest of the document is read as well so malformed definitions are rejected here rather than when the
+         * executor creates the node.
+         *
+         * @return The label text or null when there is none.
+         */
+        private static @CheckForNull String readLabel(@Nonnull String xml) throws XMLStreamException {
+            XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(new StringReader(xml));
+            try {
+                String label = null;
+                int depth = 0;
+                while (reader.hasNext()) {
+                    switch (reader.next()) {
+                        case XMLStreamConstants.START_ELEMENT:
+                            depth++;
+                            if (label == null && depth == 2 && "label".equals(reader.getLocalName())) {
+                                label = reader.getElementText();
+                                depth--; // Positioned at the end of the element
+                            }
+                            break;
+                        case XMLStreamConstants.END_ELEMENT:
+                            depth--;
+                            break;
+                    }
+                }
+                return label;
+            } finally {
+                reader.close();
+            }
+        }
+
         @Override
         public String getName() {
             return name;
@@ -139,4 +230,241 @@ public abstract class NodeDefinition implements Serializable {
             return label;
         }
     }
+
+    /**
+     * Node declared by a host entry in an {@link Inventory}.
+     *
+     * The XML definition is rendered from the template shared by all hosts of the inventory on demand.
+     */
+    public static final class Templated extends NodeDefinition {
+        private static final long serialVersionUID = 2717406457367066574L;
+
+        private final @Nonnull Inventory inventory;
+        private final @Nonnull String host;
+        private final @Nonnull String label;
+
+        private Templated(@Nonnull Inventory inventory, @Nonnull String host, @Nonnull String label) {
+            super(inventory.fileName);
+            this.inventory = inventory;
+            this.host = host;
+            this.label = label;
+        }
+
+        @Override
+        public String getName() {
+            return host;
+        }
+
+        @Override
+        public @Nonnull String getLabel() {
+            return label;
+        }
+
+        @Override
+        public @Nonnull String getFileName() {
+            return host + ".xml";
+        }
+
+        @Override
+        public @Nonnull String getDefinition() {
+            return inventory.render(host, label);
+        }
+    }
+
+    /**
+     * Several hosts declared by single template.
+     *
+     * The file consists of a header in properties format, a separator line <tt>---</tt> and XML template of the node
+     * with <tt>${host}</tt> and <tt>${label}</tt> placeholders:
+     *
+     * <pre>
+     * label=solaris sparc
+     * hosts=solaris[01-20].acme.com sol-special.acme.com
+     * label.sol-special.acme.com=solaris sparc special
+     * ---
+     * &lt;com.redhat.jenkins.nodesharingfrontend.SharedNode&gt;
+     *   &lt;name&gt;${host}&lt;/name&gt;
+     *   &lt;label&gt;${label}&lt;/label&gt;
+     *   ...
+     * &lt;/com.redhat.jenkins.nodesharingfrontend.SharedNode&gt;
+     * </pre>
+     *
+     * Hosts are separated by whitespace or commas, <tt>[from-to]</tt> declares a numeric range preserving the width of
+     * zero-padded numbers. The <tt>label</tt> is used for all hosts unless overridden by <tt>label.&lt;host&gt;</tt>.
+     * Ranges are limited to {@link #MAX_RANGE_SIZE} hosts.
+     */
+    public static final class Inventory implements Serializable {
+        private static final long serialVersionUID = -4925917124618853658L;
+
+        public static final String SUFFIX = ".inventory";
+        private static final String SEPARATOR = "---";
+        private static final String HOST = "${host}";
+        private static final String LABEL = "${label}";
+        private static final Pattern RANGE = Pattern.compile("^(.*)\\[(\\d+)-(\\d+)\\](.*)$");
+
+        /**
+         * Maximal number of hosts declared by single range.
+         */
+        public static final int MAX_RANGE_SIZE = Integer.getInteger(Inventory.class.getName() + ".MAX_RANGE_SIZE", 1000);
+
+        private final @Nonnull String fileName;
+        private final @Nonnull List<String> hosts;
+        private final @Nonnull Map<String, String> labels;
+        // Template split to literals, placeholders are in between
+        private final @Nonnull List<String> literals = new ArrayList<>();
+        private final @Nonnull List<String> placeholders = new ArrayList<>();
+
+        private Inventory(@Nonnull String fileName, @Nonnull List<String> hosts, @Nonnull Map<String, String> labels, @Nonnull String template) {
+            this.fileName = fileName;
+            this.hosts = hosts;
+            this.labels = labels;
+
+            int start = 0;
+            while (true) {
+                int host = template.indexOf(HOST, start);
+                int label = template.indexOf(LABEL, start);
+                int next = host < 0 ? label : label < 0 ? host : Math.min(host, label);
+                if (next < 0) break;
+
+                literals.add(template.substring(start, next));
+                String placeholder = next == host ? HOST : LABEL;
+                placeholders.add(placeholder);
+                start = next + placeholder.length();
+            }
+            literals.add(template.substring(start));
+        }
+
+        /**
+         * Parse inventory file.
+         *
+         * @throws IllegalArgumentException When the inventory is not valid.
+         */
+        public static @Nonnull Inventory parse(@Nonnull String fileName, @Nonnull String content) throws IllegalArgumentException {
+            content = content.replace("\r\n", "\n");
+            int separator = content.startsWith(SEPARATOR + "\n") ? 0 : content.indexOf("\n" + SEPARATOR + "\n");
+            if (separator < 0) {
+                throw new IllegalArgumentException("No '" + SEPARATOR + "' separating header from template in " + fileName);
+            }
+            String header = content.substring(0, separator);
+            String template = content.substring(content.indexOf('\n', separator + 1) + 1);
+
+            Properties properties = new Properties();
+            try {
+                properties.load(new StringReader(header));
+            } catch (IOException e) {
+                throw new AssertionError(e); // Reading string
+            }
+
+            String defaultLabel = Util.fixEmptyAndTrim(properties.getProperty("label"));
+            String declaredHosts = Util.fixEmptyAndTrim(properties.getProperty("hosts"));
+            if (declaredHosts == null) {
+                throw new IllegalArgumentException("No hosts declared in " + fileName);
+            }
+
+            List<String> hosts = new ArrayList<>();
+            for (String host : declaredHosts.split("[\\s,]+")) {
+                if (host.isEmpty()) continue;
+                expandRange(fileName, host, hosts);
+            }
+            if (hosts.isEmpty()) {
+                throw new IllegalArgumentException("No hosts declared in " + fileName);
+            }
+
+            Map<String, String> labels = new HashMap<>();
+            for (String host : hosts) {
+                String label = Util.fixEmptyAndTrim(properties.getProperty("label." + host, defaultLabel));
+                if (label == null) {
+                    throw new IllegalArgumentException("No labels specified for node " + host);
+                }
+                labels.put(host, label);
+            }
+
+            Inventory inventory = new Inventory(fileName, Collections.unmodifiableList(hosts), labels, template);
+            inventory.validate();
+            return inventory;
+        }
+
+        // Definitions are rendered on demand so make sure the template works for the hosts. They differ in placeholder values only.
+        private void validate() {
+            if (!placeholders.contains(LABEL)) {
+                throw new IllegalArgumentException("No " + LABEL + " placeholder in template of " + fileName);
+            }
+
+            // Labels can be overridden per host so render the template once for every distinct value
+            Set<String> validated = new HashSet<>();
+            for (String host : hosts) {
+                String label = labels.get(host);
+                if (!validated.add(label)) continue;
+
+                Xml rendered;
+                try {
+                    rendered = new Xml(host + ".xml", render(host, label));
+                } catch (IllegalStateException|IllegalArgumentException ex) {
+                    throw new IllegalArgumentException("Invalid template in " + fileName + " for " + host + ": " + ex.getMessage(), ex);
+                }
+                if (!label.equals(rendered.getLabel())) {
+                    throw new IllegalArgumentException(
+                            "Template in " + fileName + " declares labels '" + rendered.getLabel() + "' instead of '" + label + "' for " + host
+                    );
+                }
+            }
+        }
+
+        private static void expandRange(@Nonnull String fileName, @Nonnull String host, @Nonnull List<String> hosts) {
+            Matcher matcher = RANGE.matcher(host);
+            if (!matcher.matches()) {
+                hosts.add(host);
+                return;
+            }
+
+            String from = matcher.group(2);
+            String to = matcher.group(3);
+            long first = Long.parseLong(from);
+            long last = Long.parseLong(to);
+            if (first > last) {
+                throw new IllegalArgumentException("Invalid host range " + host + " in " + fileName);
+            }
+            // Checked before expanding as the file is parsed while polling
+            if (last - first >= MAX_RANGE_SIZE) {
+                throw new IllegalArgumentException("Host range " + host + " in " + fileName + " exceeds " + MAX_RANGE_SIZE + " hosts");
+            }
+            String format = from.length() > 1 && from.startsWith("0") ? "%0" + from.length() + "d" : "%d";
+            for (long i = first; i <= last; i++) {
+                hosts.add(matcher.group(1) + String.format(format, i) + matcher.group(4));
+            }
+        }
+
+        public @Nonnull String getFileName() {
+            return fileName;
+        }
+
+        public @Nonnull List<String> getHosts() {
+            return hosts;
+        }
+
+        /**
+         * Definitions of all the hosts sharing this inventory.
+         */
+        public @Nonnull List<NodeDefinition> expand() {
+            List<NodeDefinition> nodes = new ArrayList<>(hosts.size());
+            for (String host : hosts) {
+                nodes.add(new Templated(this, host, labels.get(host)));
+            }
+            return nodes;
+        }
+
+        private @Nonnull String render(@Nonnull String host, @Nonnull String label) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < placeholders.size(); i++) {
+                sb.append(literals.get(i));
+                sb.append(escape(HOST.equals(placeholders.get(i)) ? host : label));
+            }
+            sb.append(literals.get(literals.size() - 1));
+            return sb.toString();
+        }
+
+        private static @Nonnull String escape(@Nonnull String text) {
+            return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;").replace("'", "&apos;");
+        }
+    }
 }
@@ -0,0 +1,173 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.redhat.jenkins.nodesharing;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Adaptive schedule of config repo polling.
+ *
+ * The interval doubles with every poll that finds the repository unchanged, up to {@link #MAX_INTERVAL_MINUTES}.
+ * It drops to {@link #MIN_INTERVAL_MINUTES} once a change is found or the repository is readable again after
+ * failures. Every interval is shortened by a random fraction so the instances polling the same repository do not
+ * converge to the same schedule.
+ */
+public final class PollingSchedule {
+
+    /**
+     * Shortest interval, used right after a change.
+     */
+    public static final int MIN_INTERVAL_MINUTES = Integer.getInteger(PollingSchedule.class.getName() + ".MIN_INTERVAL_MINUTES", 1);
+
+    /**
+     * Longest interval, the worst case time to notice a change that was not announced.
+     */
+    public static final int MAX_INTERVAL_MINUTES = Integer.getInteger(PollingSchedule.class.getName() + ".MAX_INTERVAL_MINUTES", 15);
+
+    /**
+     * Portion of the interval to randomly shorten it by.
+     */
+    private static final double JITTER = 0.2;
+
+    public enum Outcome {
+        UNCHANGED, CHANGED, FAILED
+    }
+
+    private final long minInterval;
+    private final long maxInterval;
+    private final @Nonnull LongSupplier clock;
+    private final @Nonnull Random random;
+
+    @GuardedBy("this")
+    private long interval;
+    @GuardedBy("this")
+    private long nextPoll = 0; // Poll right away
+    @GuardedBy("this")
+    private long lastPoll = 0;
+    @GuardedBy("this")
+    private @CheckForNull Outcome lastOutcome;
+    @GuardedBy("this")
+    private final @Nonnull Map<Outcome, Long> outcomes = new EnumMap<>(Outcome.class);
+
+    public PollingSchedule() {
+        this(
+                TimeUnit.MINUTES.toMillis(MIN_INTERVAL_MINUTES),
+                TimeUnit.MINUTES.toMillis(MAX_INTERVAL_MINUTES),
+                System::currentTimeMillis,
+                new Random()
+        );
+    }
+
+    @VisibleForTesting
+    /*package*/ PollingSchedule(long minInterval, long maxInterval, @Nonnull LongSupplier clock, @Nonnull Random random) {
+        if (minInterval <= 0 || maxInterval < minInterval) throw new IllegalArgumentException(
+                "Invalid polling interval range: " + minInterval + " - " + maxInterval
+        );
+        this.minInterval = minInterval;
+        this.maxInterval = maxInterval;
+        this.clock = clock;
+        this.random = random;
+        this.interval = minInterval;
+        for (Outcome outcome : Outcome.values()) {
+            outcomes.put(outcome, 0L);
+        }
+    }
+
+    /**
+     * @return true if it is time to poll.
+     */
+    public synchronized boolean isDue() {
+        return clock.getAsLong() >= nextPoll;
+    }
+
+    /**
+     * Record the outcome of a poll and plan the next one.
+     */
+    public synchronized void record(@Nonnull Outcome outcome) {
+        boolean recovered = lastOutcome == Outcome.FAILED && outcome != Outcome.FAILED;
+        if (outcome == Outcome.CHANGED || recovered) {
+            interval = minInterval;
+        } else {
+            // Failing repository is not to be hammered either
+            interval = Math.min(interval * 2, maxInterval);
+        }
+
+        lastPoll = clock.getAsLong();
+        lastOutcome = outcome;
+        outcomes.put(outcome, outcomes.get(outcome) + 1);
+        nextPoll = lastPoll + interval - (long) (interval * JITTER * random.nextDouble());
+    }
+
+    /**
+     * @return Current interval in milliseconds, before the jitter is applied.
+     */
+    public synchronized long getInterval() {
+        return interval;
+    }
+
+    /**
+     * @return Time of the next poll in milliseconds since epoch.
+     */
+    public synchronized long getNextPoll() {
+        return nextPoll;
+    }
+
+    /**
+     * @return Time of the last poll in milliseconds since epoch, or 0 if not polled yet.
+     */
+    public synchronized long getLastPoll() {
+        return lastPoll;
+    }
+
+    public synchronized @CheckForNull Outcome getLastOutcome() {
+        return lastOutcome;
+    }
+
+    /**
+     * @return Number of polls that ended with given outcome.
+     */
+    public synchronized long getCount(@Nonnull Outcome outcome) {
+        return outcomes.get(outcome);
+    }
+
+    /**
+     * @return Number of polls performed.
+     */
+    public synchronized long getTotal() {
+        long total = 0;
+        for (Long count : outcomes.values()) {
+            total += count;
+        }
+        return total;
+    }
+}
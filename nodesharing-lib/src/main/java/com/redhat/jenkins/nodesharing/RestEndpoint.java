@@ -32,12 +32,15 @@ import com.redhat.jenkins.nodesharing.transport.Entity;
 import hudson.Util;
 import hudson.init.InitMilestone;
 import hudson.init.Initializer;
+import hudson.init.Terminator;
 import hudson.security.Permission;
 import hudson.security.PermissionGroup;
 import hudson.security.PermissionScope;
 import org.apache.commons.io.IOUtils;
 import org.apache.http.Header;
+import org.apache.http.HttpHost;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 import org.apache.http.StatusLine;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.client.AuthCache;
@@ -50,26 +53,45 @@ import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.client.utils.URIUtils;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.impl.auth.BasicScheme;
 import org.apache.http.impl.client.BasicAuthCache;
 import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
 import org.apache.http.message.BasicHeader;
+import org.apache.http.pool.PoolStats;
 import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.DoNotUse;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.SocketTimeoutException;
+import java.net.URI;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -130,11 +152,127 @@ public class RestEndpoint {
             .build()
     ;
 
+    // Connection pool limits shared by all endpoints. Routes are pooled separately, so the per-route limit caps the number
+    // of connections held open to a single Jenkins while the total caps all of them.
+    private static final int MAX_CONNECTIONS = parseLimit("MAX_CONNECTIONS", 200);
+    private static final int MAX_CONNECTIONS_PER_ROUTE = parseLimit("MAX_CONNECTIONS_PER_ROUTE", 20);
+    // Idle time in seconds after which kept-alive connections are evicted from the pool
+    private static final int CONNECTION_IDLE_TIMEOUT = parseLimit("CONNECTION_IDLE_TIMEOUT", 60);
+
+    @VisibleForTesting
+    /*package*/ static int parseLimit(@Nonnull String name, int defaultValue) {
+        String propertyName = RestEndpoint.class.getName() + "." + name;
+        String value = Util.fixEmptyAndTrim(System.getProperty(propertyName));
+        if (value == null) return defaultValue;
+        try {
+            int limit = Integer.parseInt(value);
+            if (limit > 0) return limit;
+        } catch (NumberFormatException e) {
+            // Fall through
+        }
+        LOGGER.warning("Value of " + propertyName + " is invalid, using default " + defaultValue);
+        return defaultValue;
+    }
+
+    // Lazily created so the pool can be reestablished after being closed on Jenkins termination
+    private static @CheckForNull PoolingHttpClientConnectionManager connectionManager;
+    private static @CheckForNull CloseableHttpClient client;
+
+    private static synchronized @Nonnull CloseableHttpClient getClient() {
+        if (client != null) return client;
+
+        // Builder would configure the SSL from system properties only for the connection manager it creates itself
+        connectionManager = new PoolingHttpClientConnectionManager(RegistryBuilder.<ConnectionSocketFactory>create()
+                .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                .register("https", SSLConnectionSocketFactory.getSystemSocketFactory())
+                .build()
+        );
+        connectionManager.setMaxTotal(MAX_CONNECTIONS);
+        connectionManager.setDefaultMaxPerRoute(MAX_CONNECTIONS_PER_ROUTE);
+        // Detect connections closed by the other side before they are leased
+        connectionManager.setValidateAfterInactivity(1000);
+
+        return client = HttpClients.custom()
+                .useSystemProperties()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(REQUEST_CONFIG)
+                // Session cookies are passed explicitly together with the crumb. Keeping them in a client-wide store
+                // would leak sessions between endpoints using different credentials.
+                .disableCookieManagement()
+                .evictExpiredConnections()
+                .evictIdleConnections(CONNECTION_IDLE_TIMEOUT, TimeUnit.SECONDS)
+                .build()
+        ;
+    }
+
+    // Non-blocking counterpart of the client, backed by its own IO reactor and connection pool
+    private static @CheckForNull CloseableHttpAsyncClient asyncClient;
+
+    private static synchronized @Nonnull CloseableHttpAsyncClient getAsyncClient() {
+        if (asyncClient != null) return asyncClient;
+
+        asyncClient = HttpAsyncClients.custom()
+                .useSystemProperties()
+                .setMaxConnTotal(MAX_CONNECTIONS)
+                .setMaxConnPerRoute(MAX_CONNECTIONS_PER_ROUTE)
+                .setDefaultRequestConfig(REQUEST_CONFIG)
+                .disableCookieManagement()
+                .build()
+        ;
+        asyncClient.start();
+        return asyncClient;
+    }
+
+    @Terminator @Restricted(DoNotUse.class)
+    public static synchronized void closeConnectionPool() {
+        if (client != null) {
+            try {
+                client.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Unable to close HttpClient", e); // $COVERAGE-IGNORE$
+            }
+            client = null;
+            connectionManager = null;
+        }
+        if (asyncClient != null) {
+            try {
+                asyncClient.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Unable to close HttpAsyncClient", e); // $COVERAGE-IGNORE$
+            }
+            asyncClient = null;
+        }
+    }
+
+    // Time in seconds the crumb and the session it is bound to are reused for
+    private static final int CRUMB_TTL = parseLimit("CRUMB_TTL", 600);
+
+    // Reason CrumbFilter rejects the request with
+    private static final String CRUMB_REJECTED = "No valid crumb was included in the request";
+
+    // Crumbs per endpoint and username to save the crumb issuer round trip for every request
+    private static final ConcurrentHashMap<String, CachedCrumb> CRUMBS = new ConcurrentHashMap<>();
+
+    /**
+     * Statistics of the connection pool shared by all endpoints.
+     */
+    public static synchronized @Nonnull PoolStats getConnectionPoolStats() {
+        if (connectionManager == null) return new PoolStats(0, 0, 0, MAX_CONNECTIONS);
+        return connectionManager.getTotalStats();
+    }
+
     private final @Nonnull String endpoint;
     private final @Nonnull String crumbIssuerEndpoint;
     private final @Nonnull UsernamePasswordCredentials creds;
+    // Time in seconds crumbs fetched by this endpoint are reused for
+    private final int crumbTtl;
 
     public RestEndpoint(@Nonnull String jenkinsUrl, @Nonnull String endpointPath, @Nonnull UsernamePasswordCredentials creds) {
+        this(jenkinsUrl, endpointPath, creds, CRUMB_TTL);
+    }
+
+    @VisibleForTesting
+    /*package*/ RestEndpoint(@Nonnull String jenkinsUrl, @Nonnull String endpointPath, @Nonnull UsernamePasswordCredentials creds, int crumbTtl) {
         Objects.requireNonNull(jenkinsUrl);
         Objects.requireNonNull(endpointPath);
         Objects.requireNonNull(creds);
@@ -142,6 +280,31 @@ public class RestEndpoint {
         this.endpoint = jenkinsUrl + endpointPath;
         this.crumbIssuerEndpoint = jenkinsUrl + "crumbIssuer/api/json";
         this.creds = creds;
+        this.crumbTtl = crumbTtl;
+    }
+
+    /**
+     * Statistics of the pooled connections to the Jenkins this endpoint belongs to.
+     */
+    public @Nonnull PoolStats getConnectionStats() {
+        HttpHost host = URIUtils.extractHost(URI.create(crumbIssuerEndpoint));
+        if (host != null && host.getPort() < 0) { // Routes are planned with the port resolved
+            host = new HttpHost(host.getHostName(), "https".equals(host.getSchemeName()) ? 443 : 80, host.getSchemeName());
+        }
+        int leased = 0, pending = 0, available = 0;
+        synchronized (RestEndpoint.class) {
+            if (connectionManager != null && host != null) {
+                // There can be several routes to the same host, differing in proxy or security attributes
+                for (HttpRoute route : connectionManager.getRoutes()) {
+                    if (!host.equals(route.getTargetHost())) continue;
+                    PoolStats stats = connectionManager.getStats(route);
+                    leased += stats.getLeased();
+                    pending += stats.getPending();
+                    available += stats.getAvailable();
+                }
+            }
+        }
+        return new PoolStats(leased, pending, available, MAX_CONNECTIONS_PER_ROUTE);
     }
 
     public HttpPost post(@Nonnull String path) {
@@ -164,11 +327,7 @@ public class RestEndpoint {
             @Nonnull Entity requestEntity,
             @Nonnull Class<T> returnType
     ) throws ActionFailed {
-        for(Header h : getCrumbHeaders()) {
-            method.addHeader(h);
-        }
-        method.setEntity(new WrappingEntity(requestEntity));
-        return _executeRequest(method, new DefaultResponseHandler<>(method, returnType));
+        return executeRequestWithCrumb(method, requestEntity, new DefaultResponseHandler<>(method, returnType));
     }
 
     /**
@@ -188,11 +347,7 @@ public class RestEndpoint {
             @Nonnull Entity requestEntity,
             @Nonnull ResponseHandler<T> handler
     ) throws ActionFailed {
-        for(Header h : getCrumbHeaders()) {
-            method.addHeader(h);
-        }
-        method.setEntity(new WrappingEntity(requestEntity));
-        return _executeRequest(method, handler);
+        return executeRequestWithCrumb(method, requestEntity, handler);
     }
 
     @VisibleForTesting
@@ -200,29 +355,161 @@ public class RestEndpoint {
             @Nonnull HttpEntityEnclosingRequestBase method,
             @Nonnull ResponseHandler<T> handler
     ) throws ActionFailed {
-        for(Header h : getCrumbHeaders()) {
+        return executeRequestWithCrumb(method, null, handler);
+    }
+
+    // Reuse the cached crumb and refresh it once in case it was rejected
+    private <T> T executeRequestWithCrumb(
+            @Nonnull HttpEntityEnclosingRequestBase method,
+            @CheckForNull Entity requestEntity,
+            @Nonnull ResponseHandler<T> handler
+    ) throws ActionFailed {
+        CachedCrumb cached = getCachedCrumb();
+        CachedCrumb crumb = cached != null ? cached : fetchCrumb();
+        try {
+            return _executeRequest(prepare(method, requestEntity, null, crumb), handler);
+        } catch (ActionFailed.RequestFailed ex) {
+            // No point in retrying with the crumb that was just issued
+            if (!isCrumbRejected(ex) || cached == null) throw ex;
+
+            LOGGER.fine("Cached crumb rejected by " + crumbIssuerEndpoint + ", refreshing");
+            CRUMBS.remove(getCrumbCacheKey(), cached);
+            method.reset();
+            return _executeRequest(prepare(method, requestEntity, cached, fetchCrumb()), handler);
+        }
+    }
+
+    // Other 403s, like missing permission, are not going to be fixed by a new crumb
+    private static boolean isCrumbRejected(@Nonnull Throwable ex) {
+        if (!(ex instanceof ActionFailed.RequestFailed)) return false;
+
+        ActionFailed.RequestFailed failed = (ActionFailed.RequestFailed) ex;
+        return failed.getStatusCode() == HttpStatus.SC_FORBIDDEN
+                && failed.getBody() != null && failed.getBody().contains(CRUMB_REJECTED)
+        ;
+    }
+
+    private @Nonnull HttpEntityEnclosingRequestBase prepare(
+            @Nonnull HttpEntityEnclosingRequestBase method,
+            @CheckForNull Entity requestEntity,
+            @CheckForNull CachedCrumb staleCrumb,
+            @Nonnull CachedCrumb crumb
+    ) {
+        if (staleCrumb != null) {
+            for (Header h : staleCrumb.headers) {
+                method.removeHeaders(h.getName());
+            }
+        }
+        for (Header h : crumb.headers) {
             method.addHeader(h);
         }
-        return _executeRequest(method, handler);
+        if (requestEntity != null) {
+            // The entity is not repeatable so it needs to be recreated for every attempt
+            method.setEntity(new WrappingEntity(requestEntity));
+        }
+        return method;
+    }
+
+    /**
+     * Execute HttpRequest without blocking the calling thread.
+     *
+     * The returned future is completed exceptionally with the same {@link ActionFailed} subtypes
+     * {@link #executeRequest(HttpEntityEnclosingRequestBase, Entity, Class)} throws.
+     *
+     * @param method Method and url to be invoked.
+     * @param requestEntity Entity to be sent in request body.
+     * @param returnType Type the response should be converted at.
+     */
+    public @Nonnull <T extends AbstractEntity> CompletableFuture<T> executeRequestAsync(
+            @Nonnull HttpEntityEnclosingRequestBase method,
+            @Nonnull Entity requestEntity,
+            @Nonnull Class<T> returnType
+    ) {
+        // The async engine reads the body from the entity content so it can not be streamed by WrappingEntity
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        requestEntity.toOutputStream(body);
+        method.setEntity(new ByteArrayEntity(body.toByteArray()));
+        DefaultResponseHandler<T> handler = new DefaultResponseHandler<>(method, returnType);
+
+        CachedCrumb cached = getCachedCrumb();
+        CompletableFuture<T> response = (cached != null ? CompletableFuture.completedFuture(cached) : fetchCrumbAsync())
+                .thenCompose(crumb -> _executeRequestAsync(prepare(method, null, null, crumb), handler))
+        ;
+        if (cached == null) return response;
+
+        // Refresh the crumb once in case it was rejected
+        return response.handle((result, ex) -> {
+            if (ex == null) return CompletableFuture.completedFuture(result);
+
+            Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+            if (!isCrumbRejected(cause)) {
+                CompletableFuture<T> failed = new CompletableFuture<>();
+                failed.completeExceptionally(cause);
+                return failed;
+            }
+
+            LOGGER.fine("Cached crumb rejected by " + crumbIssuerEndpoint + ", refreshing");
+            CRUMBS.remove(getCrumbCacheKey(), cached);
+            method.reset();
+            return fetchCrumbAsync().thenCompose(crumb -> _executeRequestAsync(prepare(method, null, cached, crumb), handler));
+        }).thenCompose(Function.identity());
+    }
+
+    private @Nonnull CompletableFuture<CachedCrumb> fetchCrumbAsync() {
+        HttpGet method = new HttpGet(crumbIssuerEndpoint);
+        return _executeRequestAsync(method, new CrumbResponseHandler(method)).thenApply(headers -> {
+            CachedCrumb crumb = new CachedCrumb(headers, crumbTtl);
+            CRUMBS.put(getCrumbCacheKey(), crumb);
+            return crumb;
+        });
+    }
+
+    private @Nonnull <T> CompletableFuture<T> _executeRequestAsync(
+            @Nonnull final HttpRequestBase method, @Nonnull final ResponseHandler<T> handler
+    ) {
+        method.setConfig(REQUEST_CONFIG);
+
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        // The response is buffered by the time the callback is invoked so the handler does not block the reactor
+        getAsyncClient().execute(method, getAuthenticatingContext(method), new FutureCallback<HttpResponse>() {
+            @Override public void completed(HttpResponse response) {
+                try {
+                    future.complete(handler.handleResponse(response));
+                } catch (ActionFailed ex) {
+                    future.completeExceptionally(ex);
+                } catch (IOException ex) {
+                    future.completeExceptionally(new ActionFailed.CommunicationError("Failed executing REST call: " + method, ex));
+                } catch (RuntimeException ex) {
+                    future.completeExceptionally(ex);
+                }
+            }
+
+            @Override public void failed(Exception ex) {
+                if (ex instanceof SocketTimeoutException) {
+                    future.completeExceptionally(new ActionFailed.RequestTimeout("Failed executing REST call: " + method, ex));
+                } else {
+                    future.completeExceptionally(new ActionFailed.CommunicationError("Failed executing REST call: " + method, ex));
+                }
+            }
+
+            @Override public void cancelled() {
+                future.cancel(false);
+            }
+        });
+        return future;
     }
 
     @CheckForNull
     private <T> T _executeRequest(@Nonnull HttpRequestBase method, @Nonnull ResponseHandler<T> handler) {
         method.setConfig(REQUEST_CONFIG);
 
-        CloseableHttpClient client = HttpClients.createSystem();
+        // The client is shared so the connection is returned to the pool once the response is consumed by the handler
         try {
-            return client.execute(method, handler, getAuthenticatingContext(method));
+            return getClient().execute(method, handler, getAuthenticatingContext(method));
         } catch (SocketTimeoutException e) {
             throw new ActionFailed.RequestTimeout("Failed executing REST call: " + method, e);
         } catch (IOException e) {
             throw new ActionFailed.CommunicationError("Failed executing REST call: " + method, e);
-        } finally {
-            try {
-                client.close();
-            } catch (IOException e) {
-                LOGGER.log(Level.WARNING, "Unable to close HttpClient", e); // $COVERAGE-IGNORE$
-            }
         }
     }
 
@@ -242,32 +529,78 @@ public class RestEndpoint {
         return context;
     }
 
+    private @Nonnull String getCrumbCacheKey() {
+        return creds.getUsername() + '@' + crumbIssuerEndpoint;
+    }
+
+    private @CheckForNull CachedCrumb getCachedCrumb() {
+        String key = getCrumbCacheKey();
+        CachedCrumb cached = CRUMBS.get(key);
+        if (cached == null) return null;
+        if (cached.isValid()) return cached;
+
+        CRUMBS.remove(key, cached);
+        return null;
+    }
+
+    private @Nonnull CachedCrumb fetchCrumb() {
+        CachedCrumb crumb = new CachedCrumb(getCrumbHeaders(), crumbTtl);
+        CRUMBS.put(getCrumbCacheKey(), crumb);
+        return crumb;
+    }
+
     private List<Header> getCrumbHeaders() {
-        List<Header> headers = new ArrayList<Header>();
         final HttpGet method = new HttpGet(crumbIssuerEndpoint);
-        _executeRequest(method, new AbstractResponseHandler<CrumbResponse>(method) {
-            private final List<Integer> ACCEPTED_CODES = Arrays.asList(200, 404);
+        return _executeRequest(method, new CrumbResponseHandler(method));
+    }
 
-            @Override
-            protected boolean shouldFail(@Nonnull StatusLine sl) {
-                return !ACCEPTED_CODES.contains(sl.getStatusCode());
-            }
+    /**
+     * Collect the crumb header together with the session cookies. No headers are needed when crumb issuer is not
+     * available.
+     */
+    private static final class CrumbResponseHandler extends AbstractResponseHandler<List<Header>> {
+        private static final List<Integer> ACCEPTED_CODES = Arrays.asList(200, 404);
 
-            @Override
-            protected @CheckForNull CrumbResponse consumeEntity(@Nonnull HttpResponse response) throws IOException {
-                if (response.getStatusLine().getStatusCode() == 404) return null;
-                CrumbResponse result = createEntity(response, CrumbResponse.class);
-                if (result != null) {
-                    for(Header cookie : response.getHeaders("Set-Cookie")) {
-                        headers.add(new BasicHeader("Cookie", cookie.getValue()));
-                    }
-                    headers.add(new BasicHeader(result.getCrumbRequestField(), result.getCrumb()));
-                }
-                return result;
+        private CrumbResponseHandler(@Nonnull HttpRequestBase method) {
+            super(method);
+        }
+
+        @Override
+        protected boolean shouldFail(@Nonnull StatusLine sl) {
+            return !ACCEPTED_CODES.contains(sl.getStatusCode());
+        }
+
+        @Override
+        protected @Nonnull List<Header> consumeEntity(@Nonnull HttpResponse response) throws IOException {
+            List<Header> headers = new ArrayList<>();
+            if (response.getStatusLine().getStatusCode() == 404) return headers;
+
+            CrumbResponse result = createEntity(response, CrumbResponse.class);
+            for(Header cookie : response.getHeaders("Set-Cookie")) {
+                headers.add(new BasicHeader("Cookie", cookie.getValue()));
             }
-        });
+            headers.add(new BasicHeader(result.getCrumbRequestField(), result.getCrumb()));
+            return headers;
+        }
+    }
 
-        return headers;
+    /**
+     * Crumb together with the session cookies it is bound to.
+     *
+     * Empty when the other side does not issue crumbs.
+     */
+    private static final class CachedCrumb {
+        private final @Nonnull List<Header> headers;
+        private final long expiresAt;
+
+        private CachedCrumb(@Nonnull List<Header> headers, int ttl) {
+            this.headers = Collections.unmodifiableList(headers);
+            this.expiresAt = System.nanoTime() + TimeUnit.SECONDS.toNanos(ttl);
+        }
+
+        private boolean isValid() {
+            return System.nanoTime() - expiresAt < 0;
+        }
     }
 
     public static class AbstractResponseHandler<T> implements ResponseHandler<T> {
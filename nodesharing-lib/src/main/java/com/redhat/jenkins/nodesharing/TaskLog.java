@@ -25,33 +25,71 @@ package com.redhat.jenkins.nodesharing;
 
 import hudson.FilePath;
 import hudson.console.AnnotatedLargeText;
+import hudson.util.ByteBuffer;
 import hudson.util.StreamTaskListener;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
 
 /**
- * Log progress of a task to file while marking error was reported.
+ * Log progress of a task to file, or memory, while marking error was reported.
  *
  * @author ogondza.
  */
 public class TaskLog extends StreamTaskListener implements AutoCloseable, Closeable {
     private static final long serialVersionUID = 1576021666075069316L;
 
-    private final File target;
+    private final @CheckForNull File target;
+    // Content of in-memory log, null when logging to file
+    private final transient @CheckForNull ByteBuffer memory;
+    private final @CheckForNull String name;
+    private final long started = System.currentTimeMillis();
     private boolean failed = false;
     private volatile boolean completed = false;
 
     public TaskLog(File out) throws IOException {
         super(out, Charset.defaultCharset());
         target = out;
+        memory = null;
+        name = null;
+    }
+
+    /**
+     * Log to memory, to be persisted by {@link #persist(File)} only when worth keeping.
+     *
+     * @param name Description of the task.
+     */
+    public TaskLog(@Nonnull String name) {
+        this(new ByteBuffer(), name);
+    }
+
+    private TaskLog(@Nonnull ByteBuffer memory, @Nonnull String name) {
+        super(memory, Charset.defaultCharset());
+        this.target = null;
+        this.memory = memory;
+        this.name = name;
+    }
+
+    public @CheckForNull String getName() {
+        return name;
+    }
+
+    /**
+     * @return Time the task was started in milliseconds since epoch.
+     */
+    public long getStarted() {
+        return started;
     }
 
     public boolean failed() {
@@ -63,13 +101,38 @@ public class TaskLog extends StreamTaskListener implements AutoCloseable, Closea
     }
 
     public String readContent() throws IOException, InterruptedException {
+        if (memory != null) {
+            getLogger().flush();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            memory.writeTo(out);
+            return out.toString(Charset.defaultCharset().name());
+        }
         return new FilePath(target).readToString();
     }
 
     public AnnotatedLargeText<TaskLog> getAnnotatedText() {
+        if (memory != null) {
+            getLogger().flush();
+            return new AnnotatedLargeText<>(memory, Charset.defaultCharset(), completed, this);
+        }
         return new AnnotatedLargeText<>(target, Charset.defaultCharset(), completed, this);
     }
 
+    /**
+     * Write the content of in-memory log to a file, replacing its former content.
+     *
+     * The log is still read from memory afterwards. Noop for logs written to file directly.
+     */
+    public void persist(@Nonnull File file) throws IOException {
+        if (memory == null) return;
+
+        getLogger().flush();
+        Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
+        try (OutputStream out = new FileOutputStream(file)) {
+            memory.writeTo(out);
+        }
+    }
+
     public void println(String msg) {
         getLogger().println(msg);
     }
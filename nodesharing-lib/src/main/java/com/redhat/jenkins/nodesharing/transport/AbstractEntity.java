@@ -23,6 +23,7 @@
  */
 package com.redhat.jenkins.nodesharing.transport;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 
 /**
@@ -42,10 +43,17 @@ public abstract class AbstractEntity extends Entity {
     // Fields transferred with every request
     private final @Nonnull String configRepoUrl;
     private final @Nonnull String version;
+    // Null when sender has no snapshot or predates the field
+    private final @CheckForNull String configRepoRevision;
 
     public AbstractEntity(@Nonnull String configRepoUrl, @Nonnull String version) {
+        this(configRepoUrl, version, null);
+    }
+
+    public AbstractEntity(@Nonnull String configRepoUrl, @Nonnull String version, @CheckForNull String configRepoRevision) {
         this.configRepoUrl = configRepoUrl;
         this.version = version;
+        this.configRepoRevision = configRepoRevision;
     }
 
     @Nonnull
@@ -57,4 +65,14 @@ public abstract class AbstractEntity extends Entity {
     public String getVersion() {
         return version;
     }
+
+    /**
+     * Config repo commit of the snapshot sender was using.
+     *
+     * Receivers use it to find out the config repo was updated without waiting for the next poll.
+     */
+    @CheckForNull
+    public String getConfigRepoRevision() {
+        return configRepoRevision;
+    }
 }
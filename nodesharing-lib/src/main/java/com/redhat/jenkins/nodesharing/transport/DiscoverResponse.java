@@ -25,6 +25,7 @@ package com.redhat.jenkins.nodesharing.transport;
 
 import com.redhat.jenkins.nodesharing.NodeDefinition;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 import java.util.Collection;
 import java.util.Collections;
@@ -51,7 +52,17 @@ public class DiscoverResponse extends AbstractEntity {
             @Nonnull String diagnosis,
             @Nonnull Collection<NodeDefinition> nodes
     ) {
-        super(configRepoUrl, version);
+        this(configRepoUrl, version, null, diagnosis, nodes);
+    }
+
+    public DiscoverResponse(
+            @Nonnull String configRepoUrl,
+            @Nonnull String version,
+            @CheckForNull String configRepoRevision,
+            @Nonnull String diagnosis,
+            @Nonnull Collection<NodeDefinition> nodes
+    ) {
+        super(configRepoUrl, version, configRepoRevision);
 
         final Set<String> labels = new HashSet<>();
         for (NodeDefinition node: nodes) {
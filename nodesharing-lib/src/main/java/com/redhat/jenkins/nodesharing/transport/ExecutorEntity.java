@@ -23,6 +23,7 @@
  */
 package com.redhat.jenkins.nodesharing.transport;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 
 /**
@@ -41,7 +42,7 @@ public class ExecutorEntity extends AbstractEntity {
     private final @Nonnull String executorUrl;
 
     public ExecutorEntity(@Nonnull Fingerprint fingerprint) {
-        super(fingerprint.configRepoUrl, fingerprint.version);
+        super(fingerprint.configRepoUrl, fingerprint.version, fingerprint.configRepoRevision);
         this.executorUrl = fingerprint.executorUrl;
     }
 
@@ -56,14 +57,23 @@ public class ExecutorEntity extends AbstractEntity {
         private final @Nonnull String configRepoUrl;
         private final @Nonnull String version;
         private final @Nonnull String executorUrl;
+        private final @CheckForNull String configRepoRevision;
 
         public Fingerprint(@Nonnull String configRepoUrl, @Nonnull String version, @Nonnull String executorUrl) {
+            this(configRepoUrl, version, executorUrl, null);
+        }
+
+        public Fingerprint(
+                @Nonnull String configRepoUrl, @Nonnull String version, @Nonnull String executorUrl,
+                @CheckForNull String configRepoRevision
+        ) {
             if (configRepoUrl == null) throw new IllegalArgumentException();
             if (version == null) throw new IllegalArgumentException();
             if (executorUrl == null) throw new IllegalArgumentException();
             this.configRepoUrl = configRepoUrl;
             this.version = version;
             this.executorUrl = executorUrl;
+            this.configRepoRevision = configRepoRevision;
         }
     }
 }
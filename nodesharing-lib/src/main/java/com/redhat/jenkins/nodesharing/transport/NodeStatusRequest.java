@@ -23,6 +23,7 @@
  */
 package com.redhat.jenkins.nodesharing.transport;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 
 /**
@@ -39,7 +40,16 @@ public class NodeStatusRequest extends AbstractEntity {
             @Nonnull String version,
             @Nonnull String nodeName
     ) {
-        super(configRepoUrl, version);
+        this(configRepoUrl, version, null, nodeName);
+    }
+
+    public NodeStatusRequest(
+            @Nonnull String configRepoUrl,
+            @Nonnull String version,
+            @CheckForNull String configRepoRevision,
+            @Nonnull String nodeName
+    ) {
+        super(configRepoUrl, version, configRepoRevision);
         this.nodeName = nodeName;
     }
 
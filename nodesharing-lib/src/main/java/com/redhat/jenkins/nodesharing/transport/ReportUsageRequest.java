@@ -23,6 +23,7 @@
  */
 package com.redhat.jenkins.nodesharing.transport;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 
 /**
@@ -32,4 +33,8 @@ public class ReportUsageRequest extends AbstractEntity {
     public ReportUsageRequest(@Nonnull String configRepoUrl, @Nonnull String version) {
         super(configRepoUrl, version);
     }
+
+    public ReportUsageRequest(@Nonnull String configRepoUrl, @Nonnull String version, @CheckForNull String configRepoRevision) {
+        super(configRepoUrl, version, configRepoRevision);
+    }
 }
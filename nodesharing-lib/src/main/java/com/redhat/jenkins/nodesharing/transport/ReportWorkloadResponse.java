@@ -23,6 +23,7 @@
  */
 package com.redhat.jenkins.nodesharing.transport;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 
 /**
@@ -32,4 +33,8 @@ public class ReportWorkloadResponse extends AbstractEntity {
     public ReportWorkloadResponse(@Nonnull String configRepoUrl, @Nonnull String version) {
         super(configRepoUrl, version);
     }
+
+    public ReportWorkloadResponse(@Nonnull String configRepoUrl, @Nonnull String version, @CheckForNull String configRepoRevision) {
+        super(configRepoUrl, version, configRepoRevision);
+    }
 }
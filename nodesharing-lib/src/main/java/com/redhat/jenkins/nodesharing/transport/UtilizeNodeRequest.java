@@ -25,6 +25,7 @@ package com.redhat.jenkins.nodesharing.transport;
 
 import com.redhat.jenkins.nodesharing.NodeDefinition;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 
 /**
@@ -36,8 +37,15 @@ public class UtilizeNodeRequest extends AbstractEntity {
     private final @Nonnull String definition;
 
     public UtilizeNodeRequest(@Nonnull String configRepoUrl, @Nonnull String version, @Nonnull NodeDefinition node) {
-        super(configRepoUrl, version);
-        fileName = node.getDeclaringFileName();
+        this(configRepoUrl, version, null, node);
+    }
+
+    public UtilizeNodeRequest(
+            @Nonnull String configRepoUrl, @Nonnull String version, @CheckForNull String configRepoRevision,
+            @Nonnull NodeDefinition node
+    ) {
+        super(configRepoUrl, version, configRepoRevision);
+        fileName = node.getFileName();
         definition = node.getDefinition();
     }
 
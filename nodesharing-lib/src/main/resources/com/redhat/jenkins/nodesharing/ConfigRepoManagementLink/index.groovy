@@ -0,0 +1,68 @@
+import com.redhat.jenkins.nodesharing.ConfigRepo
+import com.redhat.jenkins.nodesharing.ConfigRepoAdminMonitor
+import com.redhat.jenkins.nodesharing.ConfigRepoManagementLink
+import com.redhat.jenkins.nodesharing.PollingSchedule
+import com.redhat.jenkins.nodesharing.TaskLog
+import hudson.Util
+import jenkins.model.Jenkins
+
+def l = namespace(lib.LayoutTagLib)
+Jenkins jenkins = app
+ConfigRepoManagementLink link = my
+ConfigRepoAdminMonitor cram = link.monitor
+
+l.layout(permission: app.ADMINISTER) {
+    l.header(title: link.displayName)
+    l.main_panel {
+        h1(link.displayName)
+
+        if (cram.isActivated()) {
+            div(class: "error") {
+                a(href: rootURL + "/" + cram.url) {
+                    text("Problems syncing config repo: ${cram.errors.keySet().join(", ")}")
+                }
+            }
+        }
+
+        h2("Config repo polling")
+        if (cram.polling.isEmpty()) {
+            p { text("No config repo polled") }
+        } else {
+            table(class: "pane sortable bigtable") {
+                tr {
+                    th { text("Config repo") }
+                    th { text("Polls") }
+                    th { text("Changed") }
+                    th { text("Unchanged") }
+                    th { text("Failed") }
+                    th { text("Last poll") }
+                    th { text("Interval") }
+                    th { text("Next poll") }
+                }
+                cram.polling.each { String context, PollingSchedule schedule ->
+                    tr {
+                        td { text(context) }
+                        td { text(schedule.total) }
+                        td { text(schedule.getCount(PollingSchedule.Outcome.CHANGED)) }
+                        td { text(schedule.getCount(PollingSchedule.Outcome.UNCHANGED)) }
+                        td { text(schedule.getCount(PollingSchedule.Outcome.FAILED)) }
+                        td { text(schedule.lastPoll == 0 ? "N/A" : "${Util.getTimeSpanString(System.currentTimeMillis() - schedule.lastPoll)} ago (${schedule.lastOutcome})") }
+                        td { text(Util.getTimeSpanString(schedule.interval)) }
+                        td { text(schedule.isDue() ? "Due" : "in ${Util.getTimeSpanString(schedule.nextPoll - System.currentTimeMillis())}") }
+                    }
+                }
+            }
+        }
+
+        List<TaskLog> logs = ConfigRepo.recentLogs
+        if (!logs.isEmpty()) {
+            h2("Recent config repo updates")
+            logs.each { TaskLog log ->
+                h3("${log.name} ${Util.getTimeSpanString(System.currentTimeMillis() - log.started)} ago${log.failed() ? " (failed)" : ""}")
+                pre {
+                    text(log.readContent())
+                }
+            }
+        }
+    }
+}
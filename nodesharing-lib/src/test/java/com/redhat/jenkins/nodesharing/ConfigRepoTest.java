@@ -0,0 +1,329 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.redhat.jenkins.nodesharing;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.transport.RefSpec;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.stringContainsInOrder;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConfigRepoTest {
+
+    private static final PersonIdent MAINTAINER = new PersonIdent("Pool Maintainer", "pool.maintainer@acme.com");
+
+    @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File remote;
+    private Git work;
+
+    @Before
+    public void setUp() throws Exception {
+        remote = tmp.newFolder("remote.git");
+        Git.init().setBare(true).setDirectory(remote).call().getRepository().close();
+
+        work = Git.init().setDirectory(tmp.newFolder("work")).call();
+        write("config", "orchestrator.url=https://orchestrator.acme.com\n");
+        write("jenkinses/jenkins1", "url=https://jenkins1.acme.com\n");
+        write("nodes/node1.xml", node("node1"));
+        push("Init");
+    }
+
+    @After
+    public void tearDown() {
+        work.getRepository().close();
+    }
+
+    @Test
+    public void readLocalBareRepository() throws Exception {
+        ConfigRepo repo = new ConfigRepo(remote.getAbsolutePath(), new File(tmp.getRoot(), "clone"));
+
+        ConfigRepo.Snapshot snapshot = repo.getSnapshot();
+        assertEquals(head(), snapshot.getSource());
+        assertEquals("https://orchestrator.acme.com", snapshot.getConfig().get("orchestrator.url"));
+        assertEquals("jenkins1", snapshot.getJenkinsByName("jenkins1").getName());
+        assertEquals(Collections.singleton("node1"), snapshot.getNodes().keySet());
+
+        assertSame("No change in remote", snapshot, repo.getSnapshot());
+
+        write("nodes/node2.xml", node("node2"));
+        push("Add node2");
+
+        ConfigRepo.Snapshot updated = repo.getSnapshot();
+        assertEquals(head(), updated.getSource());
+        assertThat(updated.getNodes().keySet(), containsInAnyOrder("node1", "node2"));
+        assertEquals(Collections.singleton("node2"), updated.getChangedNodes());
+        assertSame(snapshot.getNodes().get("node1"), updated.getNodes().get("node1"));
+    }
+
+    @Test
+    public void logOnlyChanges() throws Exception {
+        File clone = new File(tmp.getRoot(), "clone");
+        File log = new File(tmp.getRoot(), "clone.log");
+        ConfigRepo repo = new ConfigRepo(remote.getAbsolutePath(), clone);
+
+        repo.getSnapshot();
+        assertThat(new String(Files.readAllBytes(log.toPath()), StandardCharsets.UTF_8), containsString("Node sharing config changes discovered " + head()));
+        TaskLog first = ConfigRepo.getRecentLogs().get(0);
+        assertThat(first.readContent(), containsString(head()));
+
+        assertTrue(log.delete());
+        repo.getSnapshot();
+        assertFalse("No log written when unchanged", log.exists());
+        assertSame(first, ConfigRepo.getRecentLogs().get(0));
+
+        write("nodes/node2.xml", node("node2"));
+        push("Add node2");
+        repo.getSnapshot();
+        assertTrue(log.exists());
+        assertNotSame(first, ConfigRepo.getRecentLogs().get(0));
+    }
+
+    @Test
+    public void readInventory() throws Exception {
+        ConfigRepo repo = new ConfigRepo(remote.getAbsolutePath(), new File(tmp.getRoot(), "clone"));
+        ConfigRepo.Snapshot snapshot = repo.getSnapshot();
+
+        write("nodes/rack.inventory", "label=rack\nhosts=rack[1-3].acme.com\n---\n" + node("${host}").replace("<label>${host}", "<label>${label}"));
+        push("Add rack");
+
+        ConfigRepo.Snapshot updated = repo.getSnapshot();
+        assertThat(updated.getNodes().keySet(), containsInAnyOrder("node1", "rack1.acme.com", "rack2.acme.com", "rack3.acme.com"));
+        assertThat(updated.getChangedNodes(), containsInAnyOrder("rack1.acme.com", "rack2.acme.com", "rack3.acme.com"));
+        assertSame(snapshot.getNodes().get("node1"), updated.getNodes().get("node1"));
+        assertEquals("rack", updated.getNodes().get("rack2.acme.com").getLabel());
+        assertEquals(node("rack2.acme.com").replace("<label>rack2.acme.com", "<label>rack"), updated.getNodes().get("rack2.acme.com").getDefinition());
+
+        write("nodes/node2.xml", node("node2"));
+        push("Add node2");
+
+        ConfigRepo.Snapshot carried = repo.getSnapshot();
+        assertEquals(Collections.singleton("node2"), carried.getChangedNodes());
+        assertSame(updated.getNodes().get("rack3.acme.com"), carried.getNodes().get("rack3.acme.com"));
+    }
+
+    @Test
+    public void readWithoutCheckout() throws Exception {
+        File clone = new File(tmp.getRoot(), "clone");
+        ConfigRepo repo = new ConfigRepo(remote.getAbsolutePath(), clone);
+        ConfigRepo.Snapshot snapshot = repo.getSnapshot();
+
+        assertEquals(node("node1"), snapshot.getNodes().get("node1").getDefinition());
+        assertFalse(new File(clone, "config").exists());
+        assertFalse(new File(clone, "nodes").exists());
+    }
+
+    @Test
+    public void reportBrokenCommit() throws Exception {
+        ConfigRepo repo = new ConfigRepo(remote.getAbsolutePath(), new File(tmp.getRoot(), "clone"));
+        ConfigRepo.Snapshot snapshot = repo.getSnapshot();
+
+        work.rm().addFilepattern("config").call();
+        write("nodes/nested/node2.xml", node("node2"));
+        push("Break it");
+
+        try {
+            repo.getSnapshot();
+            fail();
+        } catch (TaskLog.TaskFailed ex) {
+            String log = ex.getLog().readContent();
+            assertThat(log, containsString("ERROR: No file named 'config' found in Config Repository"));
+            assertThat(log, containsString("No directories expected in nodes dir nested"));
+        }
+
+        work.rm().addFilepattern("nodes/nested").call();
+        write("config", "orchestrator.url=https://orchestrator.acme.com\n");
+        push("Fix it");
+
+        ConfigRepo.Snapshot fixed = repo.getSnapshot();
+        assertEquals(head(), fixed.getSource());
+        assertEquals(snapshot.getNodes().keySet(), fixed.getNodes().keySet());
+    }
+
+    @Test
+    public void reportDuplicateNodes() throws Exception {
+        ConfigRepo repo = new ConfigRepo(remote.getAbsolutePath(), new File(tmp.getRoot(), "clone"));
+        repo.getSnapshot();
+
+        String template = node("${host}").replace("<label>${host}", "<label>${label}");
+        write("nodes/rack.inventory", "label=rack\nhosts=rack[1-3].acme.com node1\n---\n" + template);
+        write("nodes/more.inventory", "label=rack\nhosts=rack3.acme.com\n---\n" + template);
+        push("Clash");
+
+        try {
+            repo.getSnapshot();
+            fail();
+        } catch (TaskLog.TaskFailed ex) {
+            String log = ex.getLog().readContent();
+            assertThat(log, containsString("ERROR: Node node1 declared in rack.inventory is already declared in node1.xml"));
+            assertThat(log, containsString("ERROR: Node rack3.acme.com declared in rack.inventory is already declared in more.inventory"));
+        }
+    }
+
+    @Test
+    public void parseManyFilesInParallel() throws Exception {
+        for (int i = 0; i < 50; i++) {
+            write(String.format("nodes/node%02d.xml", i), node(String.format("node%02d", i)));
+            write(String.format("jenkinses/jenkins%02d", i), String.format("url=https://jenkins%02d.acme.com\n", i));
+        }
+        write("nodes/a.unknown", "");
+        write("nodes/z.unknown", "");
+        write("jenkinses/jenkins10", "url=http://jenkins10.acme.com\n");
+        write("jenkinses/jenkins30", "url=http://jenkins30.acme.com\n");
+        push("Grow");
+
+        ConfigRepo repo = new ConfigRepo(remote.getAbsolutePath(), new File(tmp.getRoot(), "clone"));
+        try {
+            repo.getSnapshot();
+            fail();
+        } catch (TaskLog.TaskFailed ex) {
+            // Errors are reported in the order of files
+            String log = ex.getLog().readContent();
+            assertThat(log, stringContainsInOrder(Arrays.asList(
+                    "Jenkins 'jenkins10' is using http protocol",
+                    "Jenkins 'jenkins30' is using http protocol",
+                    "Unknown node definition in a",
+                    "Unknown node definition in z"
+            )));
+        }
+
+        work.rm().addFilepattern("nodes/a.unknown").addFilepattern("nodes/z.unknown").call();
+        write("jenkinses/jenkins10", "url=https://jenkins10.acme.com\n");
+        write("jenkinses/jenkins30", "url=https://jenkins30.acme.com\n");
+        push("Fix it");
+
+        ConfigRepo.Snapshot snapshot = repo.getSnapshot();
+        assertEquals(51, snapshot.getNodes().size());
+        assertEquals(51, snapshot.getJenkinses().size());
+        assertEquals("node42", snapshot.getNodes().get("node42").getName());
+    }
+
+    @Test
+    public void persistSnapshot() throws Exception {
+        write("config", "orchestrator.url=https://orchestrator.acme.com\ncredential_id=pool\n");
+        write("jenkinses/jenkins2", "url=https://jenkins2.acme.com\ncredential_id=jenkins2\n");
+        push("Populate");
+
+        File clone = new File(tmp.getRoot(), "clone");
+        ConfigRepo.Snapshot snapshot = new ConfigRepo(remote.getAbsolutePath(), clone).getSnapshot();
+
+        File file = new File(tmp.getRoot(), "snapshot.json.gz");
+        snapshot.save(file, remote.getAbsolutePath());
+        assertNull("Persisted for different repo", ConfigRepo.Snapshot.load(file, "https://example.com/config.git"));
+        assertNull("Nothing persisted", ConfigRepo.Snapshot.load(new File(tmp.getRoot(), "missing"), remote.getAbsolutePath()));
+
+        ConfigRepo.Snapshot loaded = ConfigRepo.Snapshot.load(file, remote.getAbsolutePath());
+        assertNotNull(loaded);
+        assertEquals(snapshot.getSource(), loaded.getSource());
+        assertEquals(snapshot.getConfig(), loaded.getConfig());
+        assertEquals(snapshot.getJenkinses(), loaded.getJenkinses());
+        assertEquals("jenkins2", loaded.getJenkinsByName("jenkins2").getCredentialId());
+        assertEquals(snapshot.getNodes().keySet(), loaded.getNodes().keySet());
+        assertEquals(node("node1"), loaded.getNodes().get("node1").getDefinition());
+
+        // Restored snapshot is not read again while the repository have not changed
+        ConfigRepo restored = new ConfigRepo(remote.getAbsolutePath(), clone);
+        restored.restore(loaded);
+        assertSame(loaded, restored.getSnapshot());
+    }
+
+    @Test
+    public void bundleSnapshot() throws Exception {
+        File clone = new File(tmp.getRoot(), "clone");
+        ConfigRepo.Snapshot snapshot = new ConfigRepo(remote.getAbsolutePath(), clone).getSnapshot();
+
+        ByteArrayOutputStream bundle = new ByteArrayOutputStream();
+        snapshot.writeTo(bundle, remote.getAbsolutePath());
+
+        assertNull(ConfigRepo.Snapshot.readFrom(new ByteArrayInputStream(bundle.toByteArray()), "https://example.com/config.git"));
+
+        ConfigRepo.Snapshot read = ConfigRepo.Snapshot.readFrom(new ByteArrayInputStream(bundle.toByteArray()), remote.getAbsolutePath());
+        assertNotNull(read);
+        assertEquals(snapshot.getSource(), read.getSource());
+        assertEquals(snapshot.getConfig(), read.getConfig());
+        assertEquals(snapshot.getJenkinses(), read.getJenkinses());
+        assertEquals(snapshot.getNodes().keySet(), read.getNodes().keySet());
+
+        // Equal snapshots produce identical bundles even when built independently
+        ByteArrayOutputStream again = new ByteArrayOutputStream();
+        read.writeTo(again, remote.getAbsolutePath());
+        assertArrayEquals(bundle.toByteArray(), again.toByteArray());
+
+        try {
+            ConfigRepo.Snapshot.readFrom(new ByteArrayInputStream("Not a bundle".getBytes(StandardCharsets.UTF_8)), remote.getAbsolutePath());
+            fail();
+        } catch (IOException ex) {
+            // Expected
+        }
+    }
+
+    private void write(String path, String content) throws IOException {
+        File file = new File(work.getRepository().getWorkTree(), path);
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void push(String message) throws Exception {
+        work.add().addFilepattern(".").call();
+        work.commit().setMessage(message).setAuthor(MAINTAINER).setCommitter(MAINTAINER).call();
+        work.push().setRemote(remote.getAbsolutePath()).setRefSpecs(new RefSpec("refs/heads/master:refs/heads/master")).call();
+    }
+
+    private String head() throws IOException {
+        return work.getRepository().resolve("HEAD").name();
+    }
+
+    private static String node(String name) {
+        return "<com.redhat.jenkins.nodesharingfrontend.SharedNode>\n" +
+                "  <name>" + name + "</name>\n" +
+                "  <label>" + name + "</label>\n" +
+                "</com.redhat.jenkins.nodesharingfrontend.SharedNode>";
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.redhat.jenkins.nodesharing;
+
+import com.redhat.jenkins.nodesharing.transport.DiscoverRequest;
+import com.redhat.jenkins.nodesharing.transport.ExecutorEntity;
+import org.junit.Test;
+
+import java.util.Collection;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ConfigRevisionTrackerTest {
+
+    private final ConfigRevisionTracker tracker = new ConfigRevisionTracker(new CoalescingTrigger("test", new Runnable() {
+        @Override public void run() {}
+    }));
+
+    private static DiscoverRequest sentWith(String revision) {
+        return new DiscoverRequest(new ExecutorEntity.Fingerprint("configRepo", "4.2", "my-executor", revision));
+    }
+
+    @Test
+    public void refreshOnlyForDifferentRevision() {
+        assertFalse(tracker.observe("cafebabe", null));
+        assertFalse(tracker.observe("cafebabe", new DiscoverRequest(new ExecutorEntity.Fingerprint("configRepo", "4.2", "my-executor"))));
+        assertFalse(tracker.observe("cafebabe", sentWith("cafebabe")));
+
+        assertTrue(tracker.observe("cafebabe", sentWith("deadbeef")));
+        assertFalse("Refresh pending", tracker.observe("cafebabe", sentWith("deadbeef")));
+    }
+
+    @Test
+    public void retryFailedRefresh() {
+        assertTrue(tracker.observe("cafebabe", sentWith("deadbeef")));
+
+        Collection<String> triggeredBy = tracker.refreshing();
+        assertEquals(Collections.singletonList("deadbeef"), triggeredBy);
+        assertFalse("Refresh running", tracker.observe("cafebabe", sentWith("deadbeef")));
+        tracker.refreshed(triggeredBy, false);
+
+        assertTrue("Failed refresh forgotten", tracker.observe("cafebabe", sentWith("deadbeef")));
+        tracker.refreshed(tracker.refreshing(), true);
+
+        assertFalse("Refreshed already", tracker.observe("cafebabe", sentWith("deadbeef")));
+    }
+
+    @Test
+    public void keepRevisionsObservedWhileRefreshing() {
+        assertTrue(tracker.observe("cafebabe", sentWith("deadbeef")));
+        Collection<String> triggeredBy = tracker.refreshing();
+
+        assertTrue(tracker.observe("cafebabe", sentWith("f00d")));
+        tracker.refreshed(triggeredBy, true);
+
+        assertEquals(Collections.singletonList("f00d"), tracker.refreshing());
+        assertFalse(tracker.observe("cafebabe", sentWith("f00d")));
+    }
+}
@@ -65,6 +65,7 @@ public class ExecutorJenkinsTest {
         valid = new ExecutorJenkins(VALID_URL, VALID_NAME, CREDENTIALS_ID);
         assertNotEquals(valid, new ExecutorJenkins(VALID_URL, VALID_NAME + "a"));
         assertEquals(valid, new ExecutorJenkins(VALID_URL, VALID_NAME, CREDENTIALS_ID));
+        assertEquals(valid.hashCode(), new ExecutorJenkins(VALID_URL, VALID_NAME, CREDENTIALS_ID).hashCode());
     }
 
 //    @Test
@@ -0,0 +1,162 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.redhat.jenkins.nodesharing;
+
+import groovy.util.Node;
+import groovy.util.NodeList;
+import groovy.util.XmlParser;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Parse-throughput comparison of node definition parsing.
+ *
+ * Run with <tt>-Dnodesharing.benchmark=true -Dtest=NodeDefinitionBenchmarkTest</tt>.
+ */
+public class NodeDefinitionBenchmarkTest {
+
+    private static final int NODES = 10000;
+    private static final int ROUNDS = 5;
+
+    @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Before
+    public void enabled() {
+        assumeTrue(Boolean.getBoolean("nodesharing.benchmark"));
+    }
+
+    @Test
+    public void parseThroughput() throws Exception {
+        List<String> definitions = generate();
+
+        // Warm up both parsers
+        parseStreaming(definitions);
+        parseDom(definitions);
+
+        long streaming = Long.MAX_VALUE;
+        long dom = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            parseStreaming(definitions);
+            streaming = Math.min(streaming, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            parseDom(definitions);
+            dom = Math.min(dom, System.nanoTime() - start);
+        }
+
+        System.out.printf(
+                "Parsing %d node definitions: streaming %dms (%d nodes/s), XmlParser %dms (%d nodes/s)%n",
+                NODES,
+                TimeUnit.NANOSECONDS.toMillis(streaming), NODES * TimeUnit.SECONDS.toNanos(1) / streaming,
+                TimeUnit.NANOSECONDS.toMillis(dom), NODES * TimeUnit.SECONDS.toNanos(1) / dom
+        );
+    }
+
+    @Test
+    public void readRepository() throws Exception {
+        File remote = tmp.newFolder("remote");
+        Git git = Git.init().setDirectory(remote).call();
+        try {
+            write(remote, "config", "orchestrator.url=https://orchestrator.acme.com\n");
+            write(remote, "jenkinses/jenkins1", "url=https://jenkins1.acme.com\n");
+            List<String> definitions = generate();
+            for (int i = 0; i < definitions.size(); i++) {
+                write(remote, "nodes/node" + i + ".xml", definitions.get(i));
+            }
+            PersonIdent maintainer = new PersonIdent("Pool Maintainer", "pool.maintainer@acme.com");
+            git.add().addFilepattern(".").call();
+            git.commit().setMessage("Generated").setAuthor(maintainer).setCommitter(maintainer).call();
+        } finally {
+            git.getRepository().close();
+        }
+
+        long start = System.nanoTime();
+        ConfigRepo.Snapshot snapshot = new ConfigRepo(remote.getAbsolutePath(), tmp.newFolder("clone")).getSnapshot();
+        long duration = System.nanoTime() - start;
+
+        assertEquals(NODES, snapshot.getNodes().size());
+        System.out.printf("Fetching and reading %d node repository: %dms%n", NODES, TimeUnit.NANOSECONDS.toMillis(duration));
+    }
+
+    private static void write(File root, String path, String content) throws IOException {
+        File file = new File(root, path);
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void parseStreaming(List<String> definitions) {
+        for (int i = 0; i < definitions.size(); i++) {
+            NodeDefinition definition = NodeDefinition.create("node" + i + ".xml", definitions.get(i));
+            assertEquals("linux rack" + i % 50, definition.getLabel());
+        }
+    }
+
+    // The way NodeDefinition.Xml used to parse the label
+    private static void parseDom(List<String> definitions) throws Exception {
+        for (int i = 0; i < definitions.size(); i++) {
+            Node xmlNode = new XmlParser().parseText(definitions.get(i));
+            String label = ((Node) ((NodeList) xmlNode.get("label")).get(0)).text().trim();
+            assertEquals("linux rack" + i % 50, label);
+        }
+    }
+
+    private static List<String> generate() {
+        List<String> definitions = new ArrayList<>(NODES);
+        for (int i = 0; i < NODES; i++) {
+            definitions.add("<com.redhat.jenkins.nodesharingfrontend.SharedNode>\n" +
+                    "  <name>node" + i + ".acme.com</name>\n" +
+                    "  <description/>\n" +
+                    "  <remoteFS>/var/jenkins-workspace</remoteFS>\n" +
+                    "  <numExecutors>1</numExecutors>\n" +
+                    "  <mode>EXCLUSIVE</mode>\n" +
+                    "  <label>linux rack" + i % 50 + "</label>\n" +
+                    "  <launcher class=\"hudson.plugins.sshslaves.SSHLauncher\">\n" +
+                    "    <host>node" + i + ".acme.com</host>\n" +
+                    "    <port>22</port>\n" +
+                    "    <credentialsId>ssh-credentials</credentialsId>\n" +
+                    "    <maxNumRetries>0</maxNumRetries>\n" +
+                    "    <retryWaitTime>0</retryWaitTime>\n" +
+                    "  </launcher>\n" +
+                    "  <nodeProperties/>\n" +
+                    "</com.redhat.jenkins.nodesharingfrontend.SharedNode>");
+        }
+        return definitions;
+    }
+}
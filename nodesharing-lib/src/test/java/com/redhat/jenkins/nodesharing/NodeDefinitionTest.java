@@ -2,7 +2,15 @@ package com.redhat.jenkins.nodesharing;
 
 import org.junit.Test;
 
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.startsWith;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -36,6 +44,21 @@ public class NodeDefinitionTest {
             assertTrue(e.getMessage().startsWith("Cannot parse xml: "));
         }
 
+        // Broken after the label
+        nodeXmlDef = "<com.redhat.jenkins.nodesharingfrontend.SharedNode>\n" +
+                "  <name>test.redhat.com</name>\n" +
+                "  <label>test</label>\n" +
+                "  <launcher class=\"hudson.slaves.CommandLauncher\">\n" +
+                "    <agentCommand>\n" +
+                "  </launcher>\n" +
+                "</com.redhat.jenkins.nodesharingfrontend.SharedNode>";
+        try {
+            xmlDef = new NodeDefinition.Xml("test.xml", nodeXmlDef);
+            fail();
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().startsWith("Cannot parse xml: "));
+        }
+
         nodeXmlDef = "<com.redhat.jenkins.nodesharingfrontend.SharedNode>\n" +
                 "  <name>test.redhat.com</name>\n" +
                 "  <description/>\n" +
@@ -73,4 +96,113 @@ public class NodeDefinitionTest {
             assertTrue(e.getMessage().startsWith("No labels specified for node test"));
         }
     }
+
+    @Test
+    public void testNodeDefinitionInventory() {
+        String inventory = "label=solaris sparc\n" +
+                "hosts=sol[08-10].acme.com, special.acme.com\n" +
+                "label.special.acme.com=solaris & special\n" +
+                "---\n" +
+                "<com.redhat.jenkins.nodesharingfrontend.SharedNode>\n" +
+                "  <name>${host}</name>\n" +
+                "  <label>${label}</label>\n" +
+                "  <launcher class=\"hudson.plugins.sshslaves.SSHLauncher\"><host>${host}</host></launcher>\n" +
+                "</com.redhat.jenkins.nodesharingfrontend.SharedNode>";
+        List<NodeDefinition> nodes = NodeDefinition.createAll("solaris.inventory", inventory);
+        assertNotNull(nodes);
+        assertEquals(4, nodes.size());
+
+        NodeDefinition node = nodes.get(0);
+        assertThat(node, instanceOf(NodeDefinition.Templated.class));
+        assertEquals("sol08.acme.com", node.getName());
+        assertEquals("solaris sparc", node.getLabel());
+        assertEquals("solaris.inventory", node.getDeclaringFileName());
+        assertEquals("sol08.acme.com.xml", node.getFileName());
+        assertEquals("<com.redhat.jenkins.nodesharingfrontend.SharedNode>\n" +
+                "  <name>sol08.acme.com</name>\n" +
+                "  <label>solaris sparc</label>\n" +
+                "  <launcher class=\"hudson.plugins.sshslaves.SSHLauncher\"><host>sol08.acme.com</host></launcher>\n" +
+                "</com.redhat.jenkins.nodesharingfrontend.SharedNode>", node.getDefinition());
+        assertEquals("sol09.acme.com", nodes.get(1).getName());
+        assertEquals("sol10.acme.com", nodes.get(2).getName());
+
+        node = nodes.get(3);
+        assertEquals("special.acme.com", node.getName());
+        assertEquals("solaris & special", node.getLabel());
+        assertThat(node.getDefinition(), containsString("<label>solaris &amp; special</label>"));
+
+        // Recreated on the other side from the standalone form
+        NodeDefinition recreated = NodeDefinition.create(node.getFileName(), node.getDefinition());
+        assertNotNull(recreated);
+        assertEquals(node.getName(), recreated.getName());
+        assertEquals(node.getLabel(), recreated.getLabel());
+
+        try {
+            NodeDefinition.createAll("broken.inventory", "hosts=foo.acme.com\n---\n<node/>");
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("No labels specified for node foo.acme.com", e.getMessage());
+        }
+        try {
+            NodeDefinition.createAll("broken.inventory", "label=foo\nhosts=foo.acme.com\n<node/>");
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().startsWith("No '---' separating header from template in "));
+        }
+        assertNull(NodeDefinition.createAll("foo.txt", "bar"));
+    }
+
+    @Test
+    public void rejectBrokenInventoryTemplate() {
+        String header = "label=solaris\nhosts=sol[1-3].acme.com\n---\n";
+        try {
+            NodeDefinition.createAll("broken.inventory", header + "<node><name>${host}</name><label>solaris</label></node>");
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("No ${label} placeholder in template of broken.inventory", e.getMessage());
+        }
+        try {
+            NodeDefinition.createAll("broken.inventory", header + "<node><label>fixed</label><description>${label}</description></node>");
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Template in broken.inventory declares labels 'fixed' instead of 'solaris' for sol1.acme.com", e.getMessage());
+        }
+        try {
+            NodeDefinition.createAll("broken.inventory", header + "<node><label>${label}</label><name>${host}</node>");
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), startsWith("Invalid template in broken.inventory for sol1.acme.com: Cannot parse xml: "));
+        }
+        try {
+            NodeDefinition.createAll("broken.inventory", "label=solaris\nhosts=sol[0-99999999].acme.com\n---\n<node><label>${label}</label></node>");
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Host range sol[0-99999999].acme.com in broken.inventory exceeds " + NodeDefinition.Inventory.MAX_RANGE_SIZE + " hosts", e.getMessage());
+        }
+        try {
+            // Only the label overridden for the last host breaks the template
+            NodeDefinition.createAll("broken.inventory", "label=solaris\nhosts=sol[1-3].acme.com\nlabel.sol3.acme.com=solaris -- special\n---\n" +
+                    "<node><label>${label}</label><!-- ${label} --></node>"
+            );
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), startsWith("Invalid template in broken.inventory for sol3.acme.com: Cannot parse xml: "));
+        }
+    }
+
+    @Test
+    public void escapeInventoryPlaceholders() {
+        String inventory = "label=solaris\n" +
+                "hosts=sol[1-2].acme.com\n" +
+                "label.sol2.acme.com=solaris && it's \"special\"\n" +
+                "---\n" +
+                "<node><name>${host}</name><label>${label}</label><description value='${label}'/></node>";
+        List<NodeDefinition> nodes = NodeDefinition.createAll("solaris.inventory", inventory);
+        assertNotNull(nodes);
+        assertEquals(2, nodes.size());
+
+        NodeDefinition node = nodes.get(1);
+        assertEquals("solaris && it's \"special\"", node.getLabel());
+        assertThat(node.getDefinition(), containsString("value='solaris &amp;&amp; it&apos;s &quot;special&quot;'"));
+    }
 }
@@ -0,0 +1,107 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.redhat.jenkins.nodesharing;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.redhat.jenkins.nodesharing.PollingSchedule.Outcome.CHANGED;
+import static com.redhat.jenkins.nodesharing.PollingSchedule.Outcome.FAILED;
+import static com.redhat.jenkins.nodesharing.PollingSchedule.Outcome.UNCHANGED;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PollingScheduleTest {
+
+    private final AtomicLong now = new AtomicLong(1000);
+
+    private PollingSchedule schedule(Random random) {
+        return new PollingSchedule(10, 80, now::get, random);
+    }
+
+    @Test
+    public void backOffWhileUnchanged() {
+        PollingSchedule ps = schedule(new Random(42));
+        assertTrue("Poll right away", ps.isDue());
+
+        long[] expected = {20, 40, 80, 80};
+        for (long interval : expected) {
+            ps.record(UNCHANGED);
+            assertEquals(interval, ps.getInterval());
+        }
+
+        ps.record(CHANGED);
+        assertEquals(10, ps.getInterval());
+        ps.record(UNCHANGED);
+        assertEquals(20, ps.getInterval());
+
+        assertEquals(1, ps.getCount(CHANGED));
+        assertEquals(5, ps.getCount(UNCHANGED));
+        assertEquals(0, ps.getCount(FAILED));
+        assertEquals(6, ps.getTotal());
+        assertEquals(UNCHANGED, ps.getLastOutcome());
+    }
+
+    @Test
+    public void speedUpAfterRecovery() {
+        PollingSchedule ps = schedule(new Random(42));
+        ps.record(UNCHANGED);
+        ps.record(FAILED);
+        ps.record(FAILED);
+        assertEquals(80, ps.getInterval());
+
+        ps.record(UNCHANGED);
+        assertEquals(10, ps.getInterval());
+    }
+
+    @Test
+    public void jitter() {
+        PollingSchedule ps = new PollingSchedule(10_000, 80_000, now::get, new Random(42));
+        PollingSchedule other = new PollingSchedule(10_000, 80_000, now::get, new Random(4242));
+        for (int i = 0; i < 3; i++) {
+            ps.record(UNCHANGED);
+            other.record(UNCHANGED);
+        }
+        assertEquals(80_000, ps.getInterval());
+
+        long next = ps.getNextPoll();
+        assertTrue(next <= now.get() + 80_000);
+        assertTrue(next >= now.get() + 80_000 - 80_000 * 0.2);
+        assertNotEquals(next, other.getNextPoll());
+
+        now.set(next - 1);
+        assertFalse(ps.isDue());
+        now.set(next);
+        assertTrue(ps.isDue());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidRange() {
+        new PollingSchedule(10, 5, now::get, new Random());
+    }
+}
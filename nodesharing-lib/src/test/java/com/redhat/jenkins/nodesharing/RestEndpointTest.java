@@ -2,6 +2,7 @@ package com.redhat.jenkins.nodesharing;
 
 import static org.junit.Assert.*;
 
+import org.apache.http.pool.PoolStats;
 import org.junit.Test;
 
 public class RestEndpointTest {
@@ -14,4 +15,38 @@ public class RestEndpointTest {
     public void configureTimeout() {
         assertEquals(42, RestEndpoint.TIMEOUT);
     }
+
+    @Test
+    public void configureLimit() {
+        String property = RestEndpoint.class.getName() + ".TEST_LIMIT";
+        try {
+            assertEquals(5, RestEndpoint.parseLimit("TEST_LIMIT", 5));
+
+            System.setProperty(property, " 42 ");
+            assertEquals(42, RestEndpoint.parseLimit("TEST_LIMIT", 5));
+
+            System.setProperty(property, "0");
+            assertEquals(5, RestEndpoint.parseLimit("TEST_LIMIT", 5));
+
+            System.setProperty(property, "-1");
+            assertEquals(5, RestEndpoint.parseLimit("TEST_LIMIT", 5));
+
+            System.setProperty(property, "many");
+            assertEquals(5, RestEndpoint.parseLimit("TEST_LIMIT", 5));
+        } finally {
+            System.clearProperty(property);
+        }
+    }
+
+    @Test
+    public void closeConnectionPool() {
+        RestEndpoint.closeConnectionPool();
+        PoolStats stats = RestEndpoint.getConnectionPoolStats();
+        assertEquals(0, stats.getLeased());
+        assertEquals(0, stats.getAvailable());
+        assertEquals(0, stats.getPending());
+
+        // Closing again is harmless
+        RestEndpoint.closeConnectionPool();
+    }
 }
@@ -22,6 +22,20 @@ public class DiscoverTest {
         assertEquals(sent.getExecutorUrl(), received.getExecutorUrl());
     }
 
+    @Test
+    public void configRepoRevisionRoundtrip() throws Exception {
+        ExecutorEntity.Fingerprint fingerprint = new ExecutorEntity.Fingerprint("configRepo", "4.2", "my-executor", "cafebabe");
+        DiscoverRequest received = Entity.fromString(new DiscoverRequest(fingerprint).toString(), DiscoverRequest.class);
+        assertEquals("cafebabe", received.getConfigRepoRevision());
+
+        DiscoverResponse sent = new DiscoverResponse("configRepo", "4.2", "deadbeef", "", Collections.<NodeDefinition>emptyList());
+        assertEquals("deadbeef", Entity.fromString(sent.toString(), DiscoverResponse.class).getConfigRepoRevision());
+
+        // Sent by peer not aware of the revision
+        DiscoverRequest legacy = new DiscoverRequest(new ExecutorEntity.Fingerprint("configRepo", "4.2", "my-executor"));
+        assertNull(Entity.fromString(legacy.toString(), DiscoverRequest.class).getConfigRepoRevision());
+    }
+
     @Test
     public void responseRoundtrip() throws Exception {
         NodeDefinition node = new NodeDefinition("foo.xml", "<definition/>") {
@@ -31,6 +31,8 @@ import com.redhat.jenkins.nodesharing.ActionFailed;
 import com.redhat.jenkins.nodesharing.ConfigRepo;
 import com.redhat.jenkins.nodesharing.NodeDefinition;
 import com.redhat.jenkins.nodesharing.RestEndpoint;
+import com.redhat.jenkins.nodesharing.transport.AbstractEntity;
+import com.redhat.jenkins.nodesharing.transport.ConfigBundleRequest;
 import com.redhat.jenkins.nodesharing.transport.DiscoverRequest;
 import com.redhat.jenkins.nodesharing.transport.DiscoverResponse;
 import com.redhat.jenkins.nodesharing.transport.Entity;
@@ -51,6 +53,7 @@ import hudson.model.labels.LabelAtom;
 import hudson.security.ACL;
 import jenkins.model.Jenkins;
 import jenkins.security.NotReallyRoleSensitiveCallable;
+import org.apache.http.HttpResponse;
 import org.apache.http.StatusLine;
 import org.apache.http.client.methods.HttpPost;
 import org.kohsuke.accmod.Restricted;
@@ -70,6 +73,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Logger;
 
 /**
@@ -85,6 +89,9 @@ public class Api {
     private final SharedNodeCloud cloud;
     private final RestEndpoint rest;
     private final String version;
+    private final @Nonnull String configRepoUrl;
+    // Api is recreated for every new snapshot
+    private final @Nonnull String configRepoRevision;
 
     public Api(@Nonnull ConfigRepo.Snapshot snapshot,
                @Nonnull String configRepoUrl,
@@ -92,6 +99,8 @@ public class Api {
                @Nonnull String jenkinsUrl
     ) throws IllegalStateException {
         this.cloud = cloud;
+        this.configRepoUrl = configRepoUrl;
+        this.configRepoRevision = snapshot.getSource();
 
         try {
             // TODO getClass().getPackage().getImplementationVersion() might work equally well
@@ -109,7 +118,7 @@ public class Api {
             throw new AssertionError("Cannot load assembly properties", e);
         }
 
-        this.fingerprint = new ExecutorEntity.Fingerprint(configRepoUrl, version, jenkinsUrl);
+        this.fingerprint = new ExecutorEntity.Fingerprint(configRepoUrl, version, jenkinsUrl, configRepoRevision);
         rest = new RestEndpoint(snapshot.getOrchestratorUrl(), "node-sharing-orchestrator", getRestCredential(cloud));
     }
 
@@ -127,16 +136,34 @@ public class Api {
         return cred;
     }
 
+    // Catch up with config changes orchestrator already knows about
+    private <T extends AbstractEntity> T observe(T entity) {
+        cloud.observeConfigRevision(configRepoRevision, entity);
+        return entity;
+    }
+
     //// Outgoing
 
     /**
      * Put the queue items to Orchestrator
      */
-    // Response never used as there is likely nothing to report - async request candidate
     public void reportWorkload(@Nonnull final ReportWorkloadRequest.Workload workload) {
         if (cloud.isDisabled()) return;
         final ReportWorkloadRequest request = new ReportWorkloadRequest(fingerprint, workload);
-        rest.executeRequest(rest.post("reportWorkload"), request, ReportWorkloadResponse.class);
+        observe(rest.executeRequest(rest.post("reportWorkload"), request, ReportWorkloadResponse.class));
+    }
+
+    /**
+     * Put the queue items to Orchestrator without waiting for the response.
+     *
+     * @return Future completed once delivered. Completed with null right away when the cloud is disabled.
+     */
+    public @Nonnull CompletableFuture<ReportWorkloadResponse> reportWorkloadAsync(@Nonnull final ReportWorkloadRequest.Workload workload) {
+        if (cloud.isDisabled()) return CompletableFuture.completedFuture(null);
+        final ReportWorkloadRequest request = new ReportWorkloadRequest(fingerprint, workload);
+        return rest.executeRequestAsync(rest.post("reportWorkload"), request, ReportWorkloadResponse.class).whenComplete(
+                (response, ex) -> observe(response)
+        );
     }
 
     /**
@@ -149,10 +176,45 @@ public class Api {
      */
     @Nonnull
     public DiscoverResponse discover() throws ActionFailed {
-        return rest.executeRequest(
+        return observe(rest.executeRequest(
                 rest.post("discover"),
                 new DiscoverRequest(fingerprint), DiscoverResponse.class
-        );
+        ));
+    }
+
+    /**
+     * Get config snapshot orchestrator uses.
+     *
+     * @param current Snapshot in use, returned when orchestrator uses the same revision.
+     * @return Snapshot orchestrator uses.
+     * @throws ActionFailed When orchestrator is unable to provide the snapshot.
+     */
+    @Nonnull
+    public ConfigRepo.Snapshot fetchConfigBundle(@Nonnull final ConfigRepo.Snapshot current) throws ActionFailed {
+        final HttpPost method = rest.post("configBundle");
+        method.setHeader("If-None-Match", '"' + current.getSource() + '"');
+        ConfigRepo.Snapshot snapshot = rest.executeRequest(method, new ConfigBundleRequest(fingerprint), new RestEndpoint.AbstractResponseHandler<ConfigRepo.Snapshot>(method) {
+            @Override
+            protected boolean shouldFail(@Nonnull StatusLine sl) {
+                return sl.getStatusCode() != 200 && sl.getStatusCode() != 304;
+            }
+
+            @Override
+            protected @Nonnull ConfigRepo.Snapshot consumeEntity(@Nonnull HttpResponse response) throws IOException {
+                if (response.getStatusLine().getStatusCode() == 304) return current;
+
+                ConfigRepo.Snapshot snapshot;
+                try (InputStream is = response.getEntity().getContent()) {
+                    snapshot = ConfigRepo.Snapshot.readFrom(is, configRepoUrl);
+                } catch (IOException ex) {
+                    throw new ActionFailed.ProtocolMismatch("Unable to read config bundle", ex);
+                }
+                if (snapshot == null) throw new ActionFailed.ProtocolMismatch("Config bundle not compatible with " + configRepoUrl);
+                return snapshot;
+            }
+        });
+        assert snapshot != null;
+        return snapshot;
     }
 
     /**
@@ -197,7 +259,7 @@ public class Api {
         final Jenkins jenkins = Jenkins.getInstance();
         jenkins.checkPermission(RestEndpoint.RESERVE);
 
-        UtilizeNodeRequest request = Entity.fromInputStream(req.getInputStream(), UtilizeNodeRequest.class);
+        UtilizeNodeRequest request = observe(Entity.fromInputStream(req.getInputStream(), UtilizeNodeRequest.class));
         final NodeDefinition definition = NodeDefinition.create(request.getFileName(), request.getDefinition());
         if (definition == null) throw new AssertionError("Unknown node definition: " + request.getFileName());
 
@@ -285,7 +347,7 @@ public class Api {
     public void doNodeStatus(@Nonnull final StaplerRequest req, @Nonnull final StaplerResponse rsp) throws IOException {
         Jenkins.getInstance().checkPermission(RestEndpoint.RESERVE);
 
-        NodeStatusRequest request = Entity.fromInputStream(req.getInputStream(), NodeStatusRequest.class);
+        NodeStatusRequest request = observe(Entity.fromInputStream(req.getInputStream(), NodeStatusRequest.class));
         String nodeName = request.getNodeName();
         NodeStatusResponse.Status status = NodeStatusResponse.Status.NOT_FOUND;
         if (nodeName != null) // TODO Why would it be null?
@@ -298,7 +360,7 @@ public class Api {
     public void doReportUsage(@Nonnull final StaplerRequest req, @Nonnull final StaplerResponse rsp) throws IOException {
         Jenkins.getInstance().checkPermission(RestEndpoint.RESERVE);
 
-        ReportUsageRequest request = Entity.fromInputStream(req.getInputStream(), ReportUsageRequest.class);
+        ReportUsageRequest request = observe(Entity.fromInputStream(req.getInputStream(), ReportUsageRequest.class));
         ArrayList<String> usedNodes = new ArrayList<>();
         for (Node node : Jenkins.getInstance().getNodes()) {
             if (node instanceof SharedNode) {
@@ -318,6 +380,20 @@ public class Api {
         new ReportUsageResponse(fingerprint, usedNodes).toOutputStream(rsp.getOutputStream());
     }
 
+    /**
+     * Request to refresh the config repo, typically sent by a config repo push hook.
+     *
+     * The refresh is performed asynchronously and requests arriving shortly after each other are served by single
+     * fetch. Responds with "202 Accepted".
+     */
+    @RequirePOST
+    public void doRefresh(@Nonnull final StaplerRequest req, @Nonnull final StaplerResponse rsp) throws IOException {
+        Jenkins.getInstance().checkPermission(RestEndpoint.RESERVE);
+
+        cloud.scheduleConfigRefresh();
+        rsp.setStatus(HttpServletResponse.SC_ACCEPTED);
+    }
+
     /**
      * Immediately return node to orchestrator. (Nice to have feature)
      */
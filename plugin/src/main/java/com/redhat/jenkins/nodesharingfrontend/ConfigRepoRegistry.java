@@ -0,0 +1,248 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.redhat.jenkins.nodesharingfrontend;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.redhat.jenkins.nodesharing.ConfigRepo;
+import com.redhat.jenkins.nodesharing.ExecutorJenkins;
+import com.redhat.jenkins.nodesharing.TaskLog;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import hudson.Util;
+import hudson.init.Terminator;
+import hudson.plugins.git.GitException;
+import jenkins.model.Jenkins;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.DoNotUse;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Process-wide {@link ConfigRepo} instances, one per config repository url.
+ *
+ * All clouds and connection tests using the same repository share single local clone and the snapshots read from it.
+ * Entries are referenced by the clouds configured and by the {@link Lease}s handed out. Once neither uses them for
+ * {@link #PRUNE_GRACE_MILLIS}, they are dropped together with the clone. The grace period keeps the clone of a cloud
+ * that is being configured and so it is not listed among the clouds yet.
+ */
+@Restricted(NoExternalUse.class)
+public final class ConfigRepoRegistry {
+    private static final Logger LOGGER = Logger.getLogger(ConfigRepoRegistry.class.getName());
+
+    /**
+     * Time in ms an entry is kept after its last lease was closed, even if no cloud uses it.
+     */
+    @SuppressFBWarnings("MS_SHOULD_BE_FINAL")
+    @VisibleForTesting
+    public static long PRUNE_GRACE_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    @GuardedBy("ConfigRepoRegistry.class")
+    private static final Map<String, Entry> ENTRIES = new HashMap<>();
+
+    private ConfigRepoRegistry() {}
+
+    /**
+     * Get repository entry for the duration of its use, the lease is expected to be closed once done.
+     *
+     * Entries are never dropped while leased so the clone can not be deleted under the reader.
+     */
+    public static @Nonnull Lease acquire(@Nonnull String url) {
+        synchronized (ConfigRepoRegistry.class) {
+            Entry entry = ENTRIES.get(url);
+            if (entry == null) {
+                ENTRIES.put(url, entry = new Entry(url));
+            }
+            entry.leases++;
+            return new Lease(entry);
+        }
+    }
+
+    /**
+     * Drop entries neither leased nor used by a cloud for the grace period.
+     */
+    /*package*/ static void prune() {
+        // Clouds added after this point have read the repository recently so their entries are in the grace period
+        Set<String> used = new HashSet<>();
+        for (SharedNodeCloud cloud : SharedNodeCloud.getAll()) {
+            used.add(cloud.getConfigRepoUrl());
+        }
+
+        long now = System.currentTimeMillis();
+        // Deleted under the lock so no new entry for the url can start using the directory meanwhile
+        synchronized (ConfigRepoRegistry.class) {
+            for (Iterator<Entry> it = ENTRIES.values().iterator(); it.hasNext();) {
+                Entry entry = it.next();
+                if (entry.leases == 0 && !used.contains(entry.url) && now - entry.released >= PRUNE_GRACE_MILLIS) {
+                    it.remove();
+                    entry.delete();
+                }
+            }
+        }
+    }
+
+    // Entries are bound to Jenkins root directory
+    @Terminator @Restricted(DoNotUse.class)
+    public static void clear() {
+        synchronized (ConfigRepoRegistry.class) {
+            for (Entry entry : ENTRIES.values()) {
+                entry.repo.close();
+            }
+            ENTRIES.clear();
+        }
+    }
+
+    /**
+     * Config repository shared by all its users.
+     */
+    public static final class Entry {
+        private final @Nonnull String url;
+        private final @Nonnull File workingDir;
+        private final @Nonnull ConfigRepo repo;
+
+        @GuardedBy("ConfigRepoRegistry.class")
+        private int leases = 0;
+
+        // Time the last lease was closed
+        @GuardedBy("ConfigRepoRegistry.class")
+        private long released = System.currentTimeMillis();
+
+        // Read in progress or null
+        @GuardedBy("this")
+        private @CheckForNull CompletableFuture<ConfigRepo.Snapshot> reading;
+
+        private Entry(@Nonnull String url) {
+            this.url = url;
+            // Same location clouds used when they had repositories of their own so the clones are reused
+            this.workingDir = new File(Jenkins.getInstance().getRootDir(), "node-sharing/configs/" + ExecutorJenkins.inferCloudName(url));
+            this.repo = new ConfigRepo(url, workingDir);
+        }
+
+        public @Nonnull String getUrl() {
+            return url;
+        }
+
+        /**
+         * Get the revision the repository is at without reading it.
+         *
+         * @see ConfigRepo#getRemoteHead()
+         */
+        public @Nonnull String getRemoteRevision() throws GitException {
+            return repo.getRemoteHead().name();
+        }
+
+        /**
+         * Get the latest snapshot.
+         *
+         * Callers arriving while the repository is being read wait for that read instead of starting their own.
+         *
+         * @see ConfigRepo#getSnapshot()
+         */
+        public @Nonnull ConfigRepo.Snapshot getSnapshot() throws InterruptedException, IOException, TaskLog.TaskFailed {
+            CompletableFuture<ConfigRepo.Snapshot> read;
+            boolean reader = false;
+            synchronized (this) {
+                read = reading;
+                if (read == null) {
+                    reading = read = new CompletableFuture<>();
+                    reader = true;
+                }
+            }
+
+            if (reader) {
+                try {
+                    read.complete(repo.getSnapshot());
+                } catch (Throwable ex) {
+                    read.completeExceptionally(ex);
+                } finally {
+                    synchronized (this) {
+                        reading = null;
+                    }
+                }
+            }
+
+            try {
+                return read.get();
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof IOException) throw (IOException) cause;
+                if (cause instanceof TaskLog.TaskFailed) throw (TaskLog.TaskFailed) cause;
+                if (cause instanceof InterruptedException) throw (InterruptedException) cause;
+                if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                if (cause instanceof Error) throw (Error) cause;
+                throw new IOException(cause);
+            }
+        }
+
+        private void delete() {
+            repo.close();
+            try {
+                Util.deleteRecursive(workingDir);
+                Util.deleteFile(new File(workingDir.getAbsolutePath() + ".log"));
+            } catch (IOException ex) {
+                LOGGER.log(Level.WARNING, "Unable to delete config repo clone " + workingDir, ex);
+            }
+        }
+    }
+
+    /**
+     * Temporary reference to the shared repository.
+     */
+    public static final class Lease implements AutoCloseable {
+        private final @Nonnull Entry entry;
+        private boolean closed = false;
+
+        private Lease(@Nonnull Entry entry) {
+            this.entry = entry;
+        }
+
+        public @Nonnull Entry getEntry() {
+            return entry;
+        }
+
+        @Override
+        public void close() {
+            synchronized (ConfigRepoRegistry.class) {
+                if (closed) return;
+                closed = true;
+                entry.leases--;
+                entry.released = System.currentTimeMillis();
+            }
+            prune();
+        }
+    }
+}
@@ -2,23 +2,30 @@ package com.redhat.jenkins.nodesharingfrontend;
 
 import com.cloudbees.plugins.credentials.domains.DomainRequirement;
 import com.google.common.annotations.VisibleForTesting;
+import com.redhat.jenkins.nodesharing.ActionFailed;
+import com.redhat.jenkins.nodesharing.CoalescingTrigger;
 import com.redhat.jenkins.nodesharing.ConfigRepo;
 import com.redhat.jenkins.nodesharing.ConfigRepoAdminMonitor;
+import com.redhat.jenkins.nodesharing.ConfigRepoManagementLink;
+import com.redhat.jenkins.nodesharing.ConfigRevisionTracker;
 import com.redhat.jenkins.nodesharing.ExecutorJenkins;
 import com.redhat.jenkins.nodesharing.NodeDefinition;
+import com.redhat.jenkins.nodesharing.PollingSchedule;
 import com.redhat.jenkins.nodesharing.RestEndpoint;
 import com.redhat.jenkins.nodesharing.TaskLog;
+import com.redhat.jenkins.nodesharing.transport.AbstractEntity;
 import com.redhat.jenkins.nodesharing.transport.DiscoverResponse;
 import com.redhat.jenkins.nodesharing.transport.NodeStatusResponse;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import hudson.Extension;
-import hudson.FilePath;
 import hudson.model.Computer;
 import hudson.model.Descriptor;
 import hudson.model.Label;
 import hudson.model.PeriodicWork;
+import hudson.plugins.git.GitException;
 import hudson.plugins.ws_cleanup.DisableDeferredWipeoutNodeProperty;
 import hudson.security.ACL;
+import hudson.security.ACLContext;
 import hudson.slaves.Cloud;
 import hudson.slaves.NodeProvisioner.PlannedNode;
 import hudson.util.FormValidation;
@@ -27,7 +34,6 @@ import hudson.util.ListBoxModel;
 import com.cloudbees.plugins.credentials.CredentialsMatchers;
 
 import java.io.ByteArrayOutputStream;
-import java.io.File;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.net.URI;
@@ -39,12 +45,19 @@ import java.util.Collection;
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 import javax.servlet.ServletException;
 
 import jenkins.model.Jenkins;
 
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -69,7 +82,12 @@ import org.kohsuke.stapler.interceptor.RequirePOST;
 public class SharedNodeCloud extends Cloud {
     private static final Logger LOGGER = Logger.getLogger(SharedNodeCloud.class.getName());
 
-    private static final ConfigRepoAdminMonitor ADMIN_MONITOR = new ConfigRepoAdminMonitor();
+    @Extension
+    public static final ConfigRepoAdminMonitor ADMIN_MONITOR = new ConfigRepoAdminMonitor(SharedNodeCloud.class.getName());
+    @Extension
+    public static final ConfigRepoManagementLink MANAGEMENT_LINK = new ConfigRepoManagementLink(
+            "node-sharing-executor", "Node Sharing Executor", ADMIN_MONITOR
+    );
 
     /** Git cloneable URL of config repository. */
     @Nonnull
@@ -88,9 +106,14 @@ public class SharedNodeCloud extends Cloud {
     private transient Api api = null;
 
     @Nullable
-    private transient ConfigRepo configRepo; // Null after deserialization until getConfigRepo is called
     @CheckForNull
-    private transient ConfigRepo.Snapshot latestConfig; // Null when not yet obtained or there ware errors while doing so
+    // Null when not yet obtained or there ware errors while doing so. Written holding the cloud monitor, read without it.
+    private transient volatile ConfigRepo.Snapshot latestConfig;
+    // Background load of the first snapshot, null if none was started
+    private transient volatile Future<?> configLoad;
+    // Null after deserialization until first used. Racy initialization is benign, it can only cause an extra refresh.
+    private transient volatile CoalescingTrigger configRefresh;
+    private transient volatile ConfigRevisionTracker configRevisions;
 
     @SuppressFBWarnings("MS_SHOULD_BE_FINAL")
     @VisibleForTesting
@@ -129,7 +152,6 @@ public class SharedNodeCloud extends Cloud {
         this.configRepoUrl = configRepoUrl;
         this.orchestratorCredentialsId = orchestratorCredentialsId;
         this.disabled = disabled;
-        this.configRepo = getConfigRepo();
     }
 
     /**
@@ -185,48 +207,176 @@ public class SharedNodeCloud extends Cloud {
         return orchestratorCredentialsId;
     }
 
-    @Nonnull
-    private ConfigRepo getConfigRepo() {
-        synchronized (this) { // Prevent several ConfigRepo instances to be created over same directory
-            if (configRepo != null) return configRepo;
+    /**
+     * Get latest config repo snapshot, reading it if not obtained yet.
+     *
+     * @return Snapshot or null when there are problems reading it.
+     * @see #getLoadedConfig()
+     */
+    @CheckForNull
+    public ConfigRepo.Snapshot getLatestConfig() {
+        ConfigRepo.Snapshot config = latestConfig;
+        if (config != null) return config;
 
-            FilePath configRepoDir = Jenkins.getInstance().getRootPath().child("node-sharing/configs/" + name);
-            return configRepo = new ConfigRepo(configRepoUrl, new File(configRepoDir.getRemote()));
+        try {
+            return loadConfigSnapshot();
+        } catch (InterruptedException e) {
+            // Set interruption bit for later
+            Thread.currentThread().interrupt();
+            return latestConfig;
         }
     }
 
     /**
-     * Get latest config repo snapshot.
+     * Get latest config repo snapshot without waiting for it to be read.
      *
-     * @return Snapshot or null when there are problems reading it.
+     * When not obtained yet, the snapshot is read in the background.
+     *
+     * @return Snapshot or null when not available yet.
      */
     @CheckForNull
-    synchronized public ConfigRepo.Snapshot getLatestConfig() {
-        if (latestConfig == null) {
-            try {
-                updateConfigSnapshot();
-            } catch (InterruptedException e) {
-                // Set interruption bit for later
-                Thread.currentThread().interrupt();
+    public ConfigRepo.Snapshot getLoadedConfig() {
+        ConfigRepo.Snapshot config = latestConfig;
+        if (config == null) {
+            // Racy check can start an extra load that is a noop once the first one completes
+            Future<?> load = configLoad;
+            if (load == null || load.isDone()) {
+                configLoad = Computer.threadPoolForRemoting.submit(new Runnable() {
+                    @Override public void run() {
+                        try (ACLContext ctx = ACL.as(ACL.SYSTEM)) {
+                            loadConfigSnapshot();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                });
             }
         }
-        return latestConfig;
+        return config;
     }
 
-    synchronized private void updateConfigSnapshot() throws InterruptedException {
-        try {
-            String oldRev = latestConfig == null ? null : latestConfig.getSource();
-            latestConfig = getConfigRepo().getSnapshot();
-            String newRev = latestConfig.getSource();
-            if (!newRev.equals(oldRev)) {
-                LOGGER.info("Config repo for " + name + " updated from " + oldRev + " to " + newRev);
-                // Drop an Api instance to recreate it based on the new config repo content
-                api = null;
+    // Read the snapshot unless some other caller have done so while waiting for the monitor
+    synchronized private @CheckForNull ConfigRepo.Snapshot loadConfigSnapshot() throws InterruptedException {
+        if (latestConfig != null) return latestConfig;
+        return updateConfigSnapshot();
+    }
+
+    /**
+     * Read the latest snapshot.
+     *
+     * @return The snapshot read or null if reading failed.
+     */
+    synchronized private @CheckForNull ConfigRepo.Snapshot updateConfigSnapshot() throws InterruptedException {
+        // Shared with other clouds using the same repository, leased so it is not dropped while being read
+        try (ConfigRepoRegistry.Lease lease = ConfigRepoRegistry.acquire(configRepoUrl)) {
+            ConfigRepo.Snapshot snapshot = fetchConfigBundle(lease.getEntry());
+            if (snapshot == null) {
+                snapshot = lease.getEntry().getSnapshot();
             }
+            useConfigSnapshot(snapshot);
+            return snapshot;
         } catch (IOException|TaskLog.TaskFailed ex) {
             ADMIN_MONITOR.report(configRepoUrl, ex);
             LOGGER.log(Level.SEVERE, "Failed updating config", ex);
+            return null;
+        }
+    }
+
+    // Use snapshot read by this or other cloud using the same repository
+    synchronized private void useConfigSnapshot(@Nonnull ConfigRepo.Snapshot snapshot) {
+        String oldRev = latestConfig == null ? null : latestConfig.getSource();
+        latestConfig = snapshot;
+        String newRev = snapshot.getSource();
+        if (!newRev.equals(oldRev)) {
+            LOGGER.info("Config repo for " + name + " updated from " + oldRev + " to " + newRev);
+            // Drop an Api instance to recreate it based on the new config repo content
+            api = null;
+        }
+    }
+
+    /**
+     * Get the snapshot orchestrator uses sparing the config repo a fetch from every executor.
+     *
+     * The revision is checked against the config repo first so an orchestrator that is behind, or no longer the one
+     * declared, can not keep the executor on an outdated snapshot.
+     *
+     * @return The snapshot or null when it should be read from config repo.
+     */
+    @GuardedBy("this")
+    private @CheckForNull ConfigRepo.Snapshot fetchConfigBundle(@Nonnull ConfigRepoRegistry.Entry repo) {
+        if (latestConfig == null) return null; // Orchestrator is not known until the repo is read
+
+        String revision;
+        try {
+            revision = repo.getRemoteRevision();
+        } catch (GitException ex) {
+            return null; // Reading the repo reports the problem or recovers from the previous snapshot
+        }
+        if (revision.equals(latestConfig.getSource())) return latestConfig;
+
+        try {
+            Api api = this.api;
+            if (api == null) {
+                this.api = api = new Api(latestConfig, configRepoUrl, this, getJenkinsUrl());
+            }
+            ConfigRepo.Snapshot bundle = api.fetchConfigBundle(latestConfig);
+            if (!revision.equals(bundle.getSource())) {
+                LOGGER.info("Orchestrator serves config " + bundle.getSource() + " while " + configRepoUrl + " is at " + revision + ", reading the repo");
+                return null;
+            }
+            return bundle;
+        } catch (ActionFailed|IllegalStateException ex) {
+            LOGGER.log(Level.INFO, "Unable to get config from orchestrator, reading " + configRepoUrl, ex);
+            return null;
+        }
+    }
+
+    /**
+     * Refresh config repo snapshot shortly. Requests arriving close to each other are served by a single fetch.
+     */
+    public void scheduleConfigRefresh() {
+        getConfigRefresh().trigger();
+    }
+
+    /**
+     * Refresh config repo snapshot shortly if the entity received from orchestrator was sent using different config
+     * revision than the current one.
+     *
+     * @param current Revision of the snapshot in use.
+     * @param entity Entity received.
+     */
+    /*package*/ void observeConfigRevision(@Nonnull String current, @CheckForNull AbstractEntity entity) {
+        getConfigRevisions().observe(current, entity);
+    }
+
+    private @Nonnull ConfigRevisionTracker getConfigRevisions() {
+        ConfigRevisionTracker revisions = configRevisions;
+        if (revisions == null) {
+            configRevisions = revisions = new ConfigRevisionTracker(getConfigRefresh());
         }
+        return revisions;
+    }
+
+    // Not synchronized not to block callers while the snapshot is being updated
+    private @Nonnull CoalescingTrigger getConfigRefresh() {
+        CoalescingTrigger trigger = configRefresh;
+        if (trigger == null) {
+            configRefresh = trigger = new CoalescingTrigger("config repo refresh of " + name, new Runnable() {
+                @Override public void run() {
+                    ConfigRevisionTracker revisions = getConfigRevisions();
+                    Collection<String> triggeredBy = revisions.refreshing();
+                    boolean succeeded = false;
+                    try {
+                        succeeded = updateConfigSnapshot() != null;
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        revisions.refreshed(triggeredBy, succeeded);
+                    }
+                }
+            });
+        }
+        return trigger;
     }
 
     /*package*/ boolean isActive() {
@@ -245,17 +395,78 @@ public class SharedNodeCloud extends Cloud {
     @Extension
     public static class ConfigRepoUpdater extends PeriodicWork {
 
+        /**
+         * Polling schedule per config repo url. Config repo changes are expected to be announced through
+         * {@link Api#doRefresh} so polling is only a fallback for missed notifications.
+         */
+        @GuardedBy("this")
+        private final Map<String, PollingSchedule> polling = new HashMap<>();
+
+        // Check every minute whether it is time to poll
         @Override
         public long getRecurrencePeriod() {
-            return 5 * MIN;
+            return MIN;
         }
 
         @Override
         public void doRun() throws Exception {
-            ADMIN_MONITOR.clear();
+            update(false);
+        }
+
+        /**
+         * Read all config repos right away.
+         */
+        @VisibleForTesting
+        public void update() throws Exception {
+            update(true);
+        }
+
+        private synchronized void update(boolean force) throws InterruptedException {
+            // Read every repository once no matter how many clouds use it. Null value marks a failed read.
+            Map<String, ConfigRepo.Snapshot> updated = new HashMap<>();
+            for (SharedNodeCloud cloud : getAll()) {
+                String url = cloud.getConfigRepoUrl();
+                if (updated.containsKey(url)) {
+                    ConfigRepo.Snapshot snapshot = updated.get(url);
+                    if (snapshot != null) {
+                        cloud.useConfigSnapshot(snapshot);
+                    }
+                    continue;
+                }
+
+                PollingSchedule schedule = polling.get(url);
+                if (schedule == null) {
+                    polling.put(url, schedule = new PollingSchedule());
+                    ADMIN_MONITOR.track(url, schedule);
+                }
+                if (!force && !schedule.isDue()) continue;
+
+                ADMIN_MONITOR.clear(url);
+                ConfigRepo.Snapshot old = cloud.latestConfig;
+                ConfigRepo.Snapshot snapshot = cloud.updateConfigSnapshot();
+                updated.put(url, snapshot);
+                if (snapshot == null) {
+                    schedule.record(PollingSchedule.Outcome.FAILED);
+                } else if (old != null && old.getSource().equals(snapshot.getSource())) {
+                    schedule.record(PollingSchedule.Outcome.UNCHANGED);
+                } else {
+                    schedule.record(PollingSchedule.Outcome.CHANGED);
+                }
+            }
+
+            Set<String> used = new HashSet<>();
             for (SharedNodeCloud cloud : getAll()) {
-                cloud.updateConfigSnapshot();
+                used.add(cloud.getConfigRepoUrl());
             }
+            for (Iterator<String> it = polling.keySet().iterator(); it.hasNext();) {
+                String url = it.next();
+                if (!used.contains(url)) {
+                    it.remove();
+                    ADMIN_MONITOR.untrack(url);
+                    ADMIN_MONITOR.clear(url);
+                }
+            }
+            ConfigRepoRegistry.prune();
         }
     }
 
@@ -309,19 +520,15 @@ public class SharedNodeCloud extends Cloud {
     }
 
     // Rely on content of ConfigRepo and not what Orchestrator advertises simply as it is less fragile. No strong preference otherwise.
+    // Called from NodeProvisioner so it can not wait for config repo to be read, the label is not provisionable until then.
     @Override
     public boolean canProvision(Label label) {
-        ConfigRepo.Snapshot latestConfig = getLatestConfig();
-        if (latestConfig == null) {
+        ConfigRepo.Snapshot latestConfig = getLoadedConfig();
+        if (latestConfig == null || label == null) {
             return false;
         }
 
-        for (NodeDefinition node : latestConfig.getNodes().values()) {
-            if (label != null && label.matches(node.getLabelAtoms())) {
-                return true;
-            }
-        }
-        return false;
+        return latestConfig.canProvision(label);
     }
 
     @Override
@@ -364,7 +571,7 @@ public class SharedNodeCloud extends Cloud {
     /**
      * The cloud is considered operational once it can get data from Config Repo and talk to orchestrator.
      */
-    synchronized public boolean isOperational() {
+    public boolean isOperational() {
         return latestConfig != null;
     }
 
@@ -436,12 +643,11 @@ public class SharedNodeCloud extends Cloud {
                 return FormValidation.error(e, Messages.InvalidURI());
             }
 
-            FilePath testConfigRepoDir = Jenkins.getInstance().getRootPath().child("node-sharing/configs/testNewConfig");
-            testConfigRepoDir.deleteRecursive();
-            try {
+            // Reuse the clone of clouds already using the repository
+            try (ConfigRepoRegistry.Lease lease = ConfigRepoRegistry.acquire(configRepoUrl)) {
                 SharedNodeCloud cloud = new SharedNodeCloud(configRepoUrl, restCredentialId);
                 String jenkinsUrl = getJenkinsUrl();
-                Api api = new Api(cloud.getConfigRepo().getSnapshot(), configRepoUrl, cloud, jenkinsUrl);
+                Api api = new Api(lease.getEntry().getSnapshot(), configRepoUrl, cloud, jenkinsUrl);
                 DiscoverResponse discover = api.discover();
                 if (!discover.getDiagnosis().isEmpty()) {
                     return FormValidation.warning(discover.getDiagnosis());
@@ -458,8 +664,6 @@ public class SharedNodeCloud extends Cloud {
             } catch (Exception e) {
                 e.printStackTrace();
                 return FormValidation.error(e, "Test failed");
-            } finally {
-                testConfigRepoDir.deleteRecursive();
             }
         }
     }
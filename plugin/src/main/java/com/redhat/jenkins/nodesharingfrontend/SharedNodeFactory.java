@@ -77,7 +77,7 @@ public abstract class SharedNodeFactory implements ExtensionPoint {
         @Override
         @CheckForNull
         public SharedNode create(@Nonnull NodeDefinition def) throws IllegalArgumentException {
-            if (def instanceof NodeDefinition.Xml) {
+            if (def instanceof NodeDefinition.Xml || def instanceof NodeDefinition.Templated) {
                 SharedNode node;
                 try {
                     node = (SharedNode) Jenkins.XSTREAM2.fromXML(def.getDefinition());
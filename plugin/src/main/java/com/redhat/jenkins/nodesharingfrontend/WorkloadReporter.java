@@ -24,7 +24,9 @@
 package com.redhat.jenkins.nodesharingfrontend;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.redhat.jenkins.nodesharing.RestEndpoint;
 import com.redhat.jenkins.nodesharing.transport.ReportWorkloadRequest;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import hudson.Extension;
 import hudson.ExtensionList;
 import hudson.model.PeriodicWork;
@@ -39,11 +41,16 @@ import org.kohsuke.accmod.restrictions.NoExternalUse;
 
 import javax.annotation.Nonnull;
 import javax.inject.Inject;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -56,6 +63,11 @@ import java.util.logging.Logger;
 public class WorkloadReporter extends PeriodicWork {
     private static final Logger LOGGER = Logger.getLogger(WorkloadReporter.class.getName());
 
+    // Time in ms orchestrators have to accept the workload, accommodating the crumb request and the report itself
+    @SuppressFBWarnings("MS_SHOULD_BE_FINAL")
+    @VisibleForTesting
+    public static long REPORT_TIMEOUT = RestEndpoint.TIMEOUT * 2L;
+
     @Override
     public long getRecurrencePeriod() {
         return 3 * MIN;
@@ -99,10 +111,35 @@ public class WorkloadReporter extends PeriodicWork {
             }
         }
 
+        // Report to all orchestrators concurrently so a slow one does not delay the others
+        List<CompletableFuture<?>> reports = new ArrayList<>(workloadMapping.size());
         for (Map.Entry<SharedNodeCloud, ReportWorkloadRequest.Workload.WorkloadBuilder> entry : workloadMapping.entrySet()) {
             ReportWorkloadRequest.Workload.WorkloadBuilder workload = entry.getValue();
-            SharedNodeCloud cloud = entry.getKey();
-            cloud.getApi().reportWorkload(workload.build());
+            final SharedNodeCloud cloud = entry.getKey();
+            CompletableFuture<?> report;
+            try {
+                report = cloud.getApi().reportWorkloadAsync(workload.build());
+            } catch (RuntimeException ex) {
+                LOGGER.log(Level.WARNING, "Failed reporting workload for cloud " + cloud.name, ex);
+                continue;
+            }
+            reports.add(report.whenComplete((response, ex) -> {
+                if (ex != null) {
+                    LOGGER.log(Level.WARNING, "Failed reporting workload for cloud " + cloud.name, ex);
+                }
+            }));
+        }
+
+        // Wait for the requests so the next report is not sent before this one is delivered
+        try {
+            CompletableFuture.allOf(reports.toArray(new CompletableFuture[0])).get(REPORT_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException ex) {
+            // Logged per cloud
+        } catch (TimeoutException ex) {
+            // The requests are not holding any thread, the http client closes them once its own timeout passes
+            LOGGER.warning("Orchestrators did not accept the workload in " + REPORT_TIMEOUT + "ms");
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
         }
     }
 